@@ -1,8 +1,25 @@
 package us.dpeg.crabrace;
 
+import java.util.Dictionary;
+import java.util.Hashtable;
+
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.osgi.service.debug.DebugOptions;
+import org.eclipse.osgi.service.debug.DebugOptionsListener;
+import org.eclipse.ui.PlatformUI;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
+import org.osgi.framework.ServiceRegistration;
+
+import us.dpeg.crabrace.index.CrabIndex;
+import us.dpeg.crabrace.perf.PerfOptions;
+import us.dpeg.crabrace.perf.UiWatchdog;
+import us.dpeg.crabrace.properties.CrabPropertyCache;
+import us.dpeg.crabrace.properties.CrabPropertyStorage;
+import us.dpeg.crabrace.properties.PersistentPropertyStore;
+import us.dpeg.crabrace.properties.SidecarPropertyStore;
 
 /**
  * The activator class controls the plug-in life cycle
@@ -14,6 +31,25 @@ public class Activator extends AbstractUIPlugin {
 
 	// The shared instance
 	private static Activator plugin;
+
+	// Where each project keeps its crab properties
+	private CrabPropertyStorage propertyStorage;
+
+	// Decoded crab properties of recently used resources
+	private CrabPropertyCache propertyCache;
+
+	// Workspace-wide index of the crab properties
+	private CrabIndex crabIndex;
+
+	// Images shared by every page and dialog
+	private ImageCache imageCache;
+
+	// Logs where the UI thread stalls in crabrace code, when enabled
+	private UiWatchdog watchdog;
+
+	// Switches the performance timers and the watchdog from the tracing options
+	private PerfOptions perfOptions;
+	private ServiceRegistration<DebugOptionsListener> perfRegistration;
 	
 	/**
 	 * The constructor
@@ -28,6 +64,22 @@ public class Activator extends AbstractUIPlugin {
 	public void start(BundleContext context) throws Exception {
 		super.start(context);
 		plugin = this;
+		imageCache = new ImageCache(PLUGIN_ID);
+		if (PlatformUI.isWorkbenchRunning()) {
+			watchdog = new UiWatchdog(PlatformUI.getWorkbench().getDisplay());
+		}
+		perfOptions = new PerfOptions(watchdog);
+		Dictionary<String, String> props = new Hashtable<String, String>();
+		props.put(DebugOptions.LISTENER_SYMBOLICNAME, PLUGIN_ID);
+		perfRegistration = context.registerService(DebugOptionsListener.class, perfOptions, props);
+		propertyStorage = new CrabPropertyStorage(new PersistentPropertyStore(), new SidecarPropertyStore());
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(propertyStorage.getSidecarStore(),
+				IResourceChangeEvent.POST_CHANGE);
+		propertyCache = new CrabPropertyCache(propertyStorage);
+		ResourcesPlugin.getWorkspace().addResourceChangeListener(propertyCache,
+				IResourceChangeEvent.POST_CHANGE | IResourceChangeEvent.PRE_CLOSE | IResourceChangeEvent.PRE_DELETE);
+		crabIndex = CrabIndex.create();
+		crabIndex.start();
 	}
 
 	/*
@@ -35,6 +87,23 @@ public class Activator extends AbstractUIPlugin {
 	 * @see org.eclipse.ui.plugin.AbstractUIPlugin#stop(org.osgi.framework.BundleContext)
 	 */
 	public void stop(BundleContext context) throws Exception {
+		crabIndex.stop();
+		crabIndex = null;
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(propertyCache);
+		propertyCache = null;
+		ResourcesPlugin.getWorkspace().removeResourceChangeListener(propertyStorage.getSidecarStore());
+		propertyStorage.getSidecarStore().dispose();
+		propertyStorage = null;
+		perfOptions.dump();
+		perfRegistration.unregister();
+		perfRegistration = null;
+		perfOptions = null;
+		if (watchdog != null) {
+			watchdog.stop();
+			watchdog = null;
+		}
+		imageCache.dispose();
+		imageCache = null;
 		plugin = null;
 		super.stop(context);
 	}
@@ -49,13 +118,56 @@ public class Activator extends AbstractUIPlugin {
 	}
 
 	/**
-	 * Returns an image descriptor for the image file at the given
-	 * plug-in relative path
+	 * Returns the storage of crab properties, which chooses the store of
+	 * each project
+	 *
+	 * @return the property storage
+	 */
+	public CrabPropertyStorage getPropertyStorage() {
+		return propertyStorage;
+	}
+
+	/**
+	 * Returns the cache of crab properties, which all readers and writers
+	 * of the properties should share
+	 *
+	 * @return the property cache
+	 */
+	public CrabPropertyCache getPropertyCache() {
+		return propertyCache;
+	}
+
+	/**
+	 * Returns the index of the crab properties of the workspace
+	 *
+	 * @return the crab index
+	 */
+	public CrabIndex getCrabIndex() {
+		return crabIndex;
+	}
+
+	/**
+	 * Returns the shared images of the plug-in
+	 *
+	 * @return the image cache
+	 */
+	public ImageCache getImageCache() {
+		return imageCache;
+	}
+
+	/**
+	 * Returns the shared image descriptor for the image file at the given
+	 * plug-in relative path. Use {@link ImageCache#acquire(String)} rather
+	 * than creating images from it.
 	 *
 	 * @param path the path
 	 * @return the image descriptor
 	 */
 	public static ImageDescriptor getImageDescriptor(String path) {
-		return imageDescriptorFromPlugin(PLUGIN_ID, path);
+		Activator activator = plugin;
+		if (activator == null || activator.imageCache == null) {
+			return imageDescriptorFromPlugin(PLUGIN_ID, path);
+		}
+		return activator.imageCache.getDescriptor(path);
 	}
 }
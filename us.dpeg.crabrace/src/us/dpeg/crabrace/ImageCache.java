@@ -0,0 +1,155 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Shared, reference-counted cache of the images of the plug-in.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.eclipse.jface.resource.ImageDescriptor;
+import org.eclipse.jface.resource.JFaceResources;
+import org.eclipse.jface.resource.LocalResourceManager;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.graphics.Image;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * The images of the plug-in, shared by every page and dialog. Owned by the
+ * {@link Activator}, and disposed when the bundle stops.
+ * <p>
+ * Descriptors are created once per path and kept, which costs no native
+ * resources. An image is decoded on the first {@link #acquire(String)} of
+ * its path, and every later acquire returns the same {@link Image} and
+ * counts one more reference. The image is disposed when the last reference
+ * is released. The counting is done by a JFace {@link LocalResourceManager}
+ * over the shared resource manager of the display, so images also used by
+ * other plug-ins through the same descriptor exist only once. Descriptors
+ * from {@link Activator#imageDescriptorFromPlugin(String, String)} pick the
+ * {@code @2x} variant of a PNG on HiDPI displays by themselves.
+ * <p>
+ * Images must be acquired and released on the display thread.
+ *
+ * @author dpurnhagen
+ */
+public class ImageCache {
+	private final String pluginId;
+	private final ConcurrentMap<String, ImageDescriptor> descriptors = new ConcurrentHashMap<String, ImageDescriptor>();
+	// created on first acquire, on the display thread
+	private LocalResourceManager resources;
+	private Display display;
+
+	/**
+	 * @param pluginId the plug-in holding the images
+	 */
+	public ImageCache(String pluginId) {
+		this.pluginId = pluginId;
+	}
+
+	/**
+	 * Get the shared descriptor of an image. No image is decoded. May be
+	 * called from any thread.
+	 *
+	 * @param path the plug-in relative path of the image
+	 * @return the descriptor, or the missing image descriptor if the path
+	 *         cannot be resolved
+	 */
+	public ImageDescriptor getDescriptor(String path) {
+		ImageDescriptor descriptor = descriptors.get(path);
+		if (descriptor == null) {
+			descriptor = Activator.imageDescriptorFromPlugin(pluginId, path);
+			if (descriptor == null) {
+				descriptor = ImageDescriptor.getMissingImageDescriptor();
+			}
+			ImageDescriptor raced = descriptors.putIfAbsent(path, descriptor);
+			if (raced != null) {
+				descriptor = raced;
+			}
+		}
+		return descriptor;
+	}
+
+	/**
+	 * Get an image, decoding it if no one holds it. Every acquire must be
+	 * matched by a {@link #release(String)}.
+	 *
+	 * @param path the plug-in relative path of the image
+	 * @return the shared image; do not dispose it
+	 */
+	public Image acquire(String path) {
+		return getResources().createImage(getDescriptor(path));
+	}
+
+	/**
+	 * Get an image that is released when a control is disposed.
+	 *
+	 * @param path the plug-in relative path of the image
+	 * @param owner the control showing the image
+	 * @return the shared image; do not dispose it
+	 */
+	public Image acquire(final String path, Control owner) {
+		Image image = acquire(path);
+		owner.addDisposeListener(new DisposeListener() {
+			public void widgetDisposed(DisposeEvent e) {
+				release(path);
+			}
+		});
+		return image;
+	}
+
+	/**
+	 * Drop one reference to an image, disposing it when it was the last.
+	 *
+	 * @param path the plug-in relative path of the image
+	 */
+	public void release(String path) {
+		if (resources != null) {
+			resources.destroyImage(getDescriptor(path));
+		}
+	}
+
+	private LocalResourceManager getResources() {
+		if (resources == null) {
+			display = Display.getCurrent();
+			if (display == null) {
+				SWT.error(SWT.ERROR_THREAD_INVALID_ACCESS);
+			}
+			resources = new LocalResourceManager(JFaceResources.getResources(display));
+		}
+		return resources;
+	}
+
+	/**
+	 * Release every image still held, on the display thread. Called when
+	 * the bundle stops; later acquires start over.
+	 */
+	public void dispose() {
+		final LocalResourceManager held = resources;
+		final Display d = display;
+		resources = null;
+		display = null;
+		if (held == null || d.isDisposed()) {
+			return;
+		}
+		if (Display.getCurrent() == d) {
+			held.dispose();
+		} else {
+			d.asyncExec(new Runnable() {
+				public void run() {
+					held.dispose();
+				}
+			});
+		}
+	}
+}
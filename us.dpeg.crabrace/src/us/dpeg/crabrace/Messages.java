@@ -19,13 +19,50 @@ import org.eclipse.osgi.util.NLS;
  */
 public class Messages extends NLS {
 	private static final String BUNDLE_NAME = "us.dpeg.crabrace.messages"; //$NON-NLS-1$
+	public static String BulkPropertiesDialog_info;
+	public static String BulkPropertiesDialog_title;
+	public static String ComboComposites_ErrorLoad;
+	public static String ComboComposites_FilterMessage;
+	public static String ComboComposites_JobLoad;
 	public static String ComboComposites_LabelDefault;
+	public static String ComboComposites_LabelLoading;
+	public static String CopyableDialog_errorExport;
+	public static String CopyableDialog_errorFileTooLarge;
+	public static String CopyableDialog_errorFormat;
+	public static String CopyableDialog_errorPattern;
+	public static String CopyableDialog_infoCopyTooLarge;
+	public static String CopyableDialog_infoLongLines;
+	public static String CopyableDialog_infoMatches;
+	public static String CopyableDialog_infoNoMatches;
+	public static String CopyableDialog_jobCopy;
+	public static String CopyableDialog_jobExport;
+	public static String CopyableDialog_jobFind;
+	public static String CopyableDialog_jobFormat;
+	public static String CopyableDialog_jobIndex;
+	public static String CopyableDialog_labelCopy;
 	public static String CopyableDialog_labelCopyAll;
+	public static String CopyableDialog_labelExport;
+	public static String CopyableDialog_labelFind;
+	public static String CopyableDialog_labelMatchCase;
+	public static String CopyableDialog_labelNext;
+	public static String CopyableDialog_labelPrettyPrint;
+	public static String CopyableDialog_labelPrevious;
+	public static String CopyableDialog_labelReflow;
+	public static String CopyableDialog_labelRegex;
+	public static String CrabIndex_errorSave;
+	public static String CrabIndex_jobUpdate;
+	public static String CrabraceProperties_errorSave;
+	public static String CrabraceProperties_errorSaveMany;
+	public static String CrabraceProperties_errorSaveValue;
 	public static String CrabraceProperties_info1;
 	public static String CrabraceProperties_info2;
 	public static String CrabraceProperties_info3;
 	public static String CrabraceProperties_info4;
 	public static String CrabraceProperties_info5;
+	public static String CrabraceProperties_infoOwnerAssist;
+	public static String CrabraceProperties_jobLoad;
+	public static String CrabraceProperties_jobSave;
+	public static String CrabraceProperties_jobSaveMany;
 	public static String CrabraceProperties_labelExtraNimble;
 	public static String CrabraceProperties_labelInformation;
 	public static String CrabraceProperties_labelLooksFactor;
@@ -37,6 +74,13 @@ public class Messages extends NLS {
 	public static String CrabraceProperties_valueAgilityDefault;
 	public static String CrabraceProperties_valueLooksDefault;
 	public static String CrabraceProperties_valueOwnerDefault;
+	public static String MigrateStorageJob_jobToSidecar;
+	public static String MigrateStorageJob_jobToWorkspace;
+	public static String SidecarPropertyStore_errorIO;
+	public static String SidecarPropertyStore_errorNoSidecar;
+	public static String SidecarPropertyStore_jobRefresh;
+	public static String UiWatchdog_stackTrace;
+	public static String UiWatchdog_warningStall;
 
 	private Messages() {
 	}
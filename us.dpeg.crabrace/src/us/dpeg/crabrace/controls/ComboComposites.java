@@ -12,8 +12,18 @@
  */
 package us.dpeg.crabrace.controls;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.events.SelectionAdapter;
@@ -22,9 +32,11 @@ import org.eclipse.swt.layout.GridData;
 import org.eclipse.swt.layout.GridLayout;
 import org.eclipse.swt.widgets.Combo;
 import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Label;
 
 import us.dpeg.crabrace.Messages;
+import us.dpeg.crabrace.perf.Perf;
 
 /**
  * Maintain a list of composites, which overlay the same space on the page.
@@ -33,6 +45,46 @@ import us.dpeg.crabrace.Messages;
  * Then use {@link #getComposite(String) getComposite(key)} to add or
  * retrieve a composite. Use {@link #setSelection(String) setSelection(key)}
  * to force the display of a particular composite.
+ * <p>
+ * Pages can also be registered lazily with
+ * {@link #addComposite(String, IPageFactory) addComposite(key, factory)}.
+ * The key appears in the combo box right away, but the composite and its
+ * widgets are not created until the page is first selected, or until
+ * {@link #getComposite(String) getComposite(key)} asks for it. Large page
+ * sets should be registered in one call with
+ * {@link #addComposites(Collection, IPageFactory) addComposites(keys, factory)},
+ * which fills the combo box and lays out the control only once.
+ * <p>
+ * Use {@link #setCacheLimit(int) setCacheLimit(limit)} to bound the number of
+ * pages that stay built at once. When the limit is exceeded, the least
+ * recently used pages created by a factory are disposed. Pages created by an
+ * {@link IHibernatingPageFactory} save their state first, and get it back
+ * when they are rebuilt on the next selection.
+ * <p>
+ * Pages whose data is slow to fetch can be registered with
+ * {@link #addComposite(String, IPageLoader) addComposite(key, loader)}. The
+ * data is loaded in a background job while the page shows a placeholder,
+ * the load is cancelled if the user moves on before it finishes, and with
+ * {@link #setPrefetch(boolean) setPrefetch(true)} the data of the pages next
+ * to the selected one is loaded ahead of time.
+ * <p>
+ * For large page sets, create the control with the {@code filtered} flag.
+ * The combo box is then replaced by a search box over a virtual list, which
+ * filters the keys by prefix or substring as the user types.
+ * <p>
+ * Except for the {@code post} methods, every method must be called on the
+ * display thread. Background code that discovers pages can instead use
+ * {@link #postComposite(String, IPageFactory) postComposite(key, factory)},
+ * {@link #postRemoveComposite(String) postRemoveComposite(key)} and
+ * {@link #postSelection(String) postSelection(key)} from any thread. The
+ * posted changes are queued without locking, collapsed, and applied
+ * together once per tick.
+ * <p>
+ * When the whole page set changes, pass the new key list to
+ * {@link #setComposites(List, IPageFactory) setComposites(keys, factory)}.
+ * Only the keys that were added, removed or moved are touched, pages that
+ * stay are neither rebuilt nor reloaded, and the selection is kept if its
+ * key is still there.
  *
  * <h2>Example of usage:</h2>
  * <pre>
@@ -63,10 +115,26 @@ import us.dpeg.crabrace.Messages;
  * @author dpurnhagen
  */
 public class ComboComposites extends Composite {
+	// selector changes applied one by one; more replace all items at once
+	private static final int INCREMENTAL_ITEMS = 16;
+
 	private Map<String, Composite> map;
+	private Map<String, IPageFactory> factories;
+	private Map<String, Object> states;
+	private LinkedHashSet<String> recent;
+	private int cacheLimit;
+	private long cacheHits;
+	private long cacheEvictions;
+	private long cacheRebuilds;
 	private String label;
 	private Combo comboCombo;
+	private FilteredKeySelector filteredSelector;
 	private String selection;
+	private String shown;
+	private boolean showPending;
+	private boolean prefetch;
+	private Set<String> prefetching;
+	private final MutationQueue mutations;
 
 	/**
 	 * @param parent the parent container
@@ -82,24 +150,49 @@ public class ComboComposites extends Composite {
 	 * @param label the text label for the combo box
 	 */
 	public ComboComposites(Composite parent, String label) {
+		this(parent, label, false);
+	}
+
+	/**
+	 * @param parent the parent container
+	 * @param label the text label for the selector
+	 * @param filtered true to select pages with a type-ahead search box and
+	 *        a virtual list instead of a combo box
+	 */
+	public ComboComposites(Composite parent, String label, boolean filtered) {
 		super(parent, SWT.NONE);
 		map = new HashMap<String, Composite>();
+		factories = new HashMap<String, IPageFactory>();
+		states = new HashMap<String, Object>();
+		recent = new LinkedHashSet<String>();
+		cacheLimit = 0;
 		this.label = label;
 		this.selection = ""; //$NON-NLS-1$
+		this.shown = null;
+		this.showPending = false;
+		this.prefetch = false;
+		this.prefetching = new HashSet<String>();
+		this.mutations = new MutationQueue(this);
 
 		setLayout(new GridLayout(2, false));
 
 		Label lblLabel = new Label(this, SWT.NONE);
-		lblLabel.setLayoutData(new GridData(SWT.BEGINNING, SWT.CENTER, false, false, 1, 1));
 		lblLabel.setText(label);
 
-		comboCombo = new Combo(this, SWT.READ_ONLY);
-		comboCombo.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
-		comboCombo.addSelectionListener(new SelectionAdapter() {
-			public void widgetSelected(SelectionEvent e) {
-				setSelection(((Combo) e.widget).getText());
-			}
-		});
+		if (filtered) {
+			lblLabel.setLayoutData(new GridData(SWT.BEGINNING, SWT.BEGINNING, false, false, 1, 1));
+			filteredSelector = new FilteredKeySelector(this);
+			filteredSelector.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
+		} else {
+			lblLabel.setLayoutData(new GridData(SWT.BEGINNING, SWT.CENTER, false, false, 1, 1));
+			comboCombo = new Combo(this, SWT.READ_ONLY);
+			comboCombo.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
+			comboCombo.addSelectionListener(new SelectionAdapter() {
+				public void widgetSelected(SelectionEvent e) {
+					setSelection(((Combo) e.widget).getText());
+				}
+			});
+		}
 
 	}
 
@@ -110,22 +203,606 @@ public class ComboComposites extends Composite {
 	}
 
 	/**
+	 * Register a page whose contents are built on demand. The key is added
+	 * to the combo box, but no composite is created until the page is
+	 * selected or requested with {@link #getComposite(String)}. Registering
+	 * a key that already exists has no effect.
+	 *
 	 * @param key the unique string identifier and text for the combo box entry
-	 * @return the composite associated with the key
+	 * @param factory the callback that builds the page contents
 	 */
-	public Composite getComposite(String key) {
+	public void addComposite(String key, IPageFactory factory) {
 		if (map.containsKey(key)) {
-			return map.get(key);
+			return;
+		}
+		if (factory != null) {
+			factories.put(key, factory);
+		}
+		map.put(key, null);
+		addItem(key);
+	}
+
+	/**
+	 * Register a page whose data is loaded in the background. When the page
+	 * is first shown it displays a placeholder, the loader fetches the data
+	 * in a job, and the page is rendered when the data arrives. Registering
+	 * a key that already exists has no effect.
+	 *
+	 * @param key the unique string identifier and text for the combo box entry
+	 * @param loader the callback that loads the data and renders the page
+	 */
+	public void addComposite(String key, IPageLoader loader) {
+		addComposite(key, new LoadingPageFactory(loader, key, getDisplay()));
+	}
+
+	/**
+	 * Register many pages whose contents are built on demand, in one pass.
+	 * The combo box is filled with a single call, drawing is suspended while
+	 * the keys are registered, and the control is laid out once at the end.
+	 * Keys that already exist are skipped.
+	 *
+	 * @param keys the unique string identifiers and texts for the combo box entries
+	 * @param factory the callback that builds the contents of each page
+	 */
+	public void addComposites(Collection<String> keys, IPageFactory factory) {
+		Map<String, IPageFactory> pages = new LinkedHashMap<String, IPageFactory>();
+		for (String key : keys) {
+			pages.put(key, factory);
+		}
+		setRedraw(false);
+		try {
+			if (!registerComposites(pages).isEmpty()) {
+				this.layout();
+			}
+		} finally {
+			setRedraw(true);
+		}
+	}
+
+	/**
+	 * Register pages and append their keys to the selector in one update.
+	 * Keys that already exist are skipped.
+	 *
+	 * @param pages the keys and the factories of their pages, in order
+	 * @return the keys that were added
+	 */
+	private List<String> registerComposites(Map<String, IPageFactory> pages) {
+		List<String> added = new ArrayList<String>(pages.size());
+		for (Map.Entry<String, IPageFactory> page : pages.entrySet()) {
+			String key = page.getKey();
+			if (!map.containsKey(key)) {
+				if (page.getValue() != null) {
+					factories.put(key, page.getValue());
+				}
+				map.put(key, null);
+				added.add(key);
+			}
+		}
+		if (!added.isEmpty()) {
+			addItems(added);
+		}
+		return added;
+	}
+
+	/**
+	 * Unregister a page, disposing it if it is built. If the page is
+	 * selected, the page listed next to it is selected instead.
+	 *
+	 * @param key the key of the page
+	 * @return true if the key was registered
+	 */
+	public boolean removeComposite(String key) {
+		return !removeComposites(Collections.singleton(key)).isEmpty();
+	}
+
+	/**
+	 * Unregister many pages in one pass, with a single update of the
+	 * selector. If the selected page is removed, the nearest remaining page
+	 * next to it is selected instead.
+	 *
+	 * @param keys the keys of the pages
+	 * @return the keys that were registered and are now removed
+	 */
+	public List<String> removeComposites(Collection<String> keys) {
+		Set<String> removed = new LinkedHashSet<String>();
+		for (String key : keys) {
+			if (map.containsKey(key)) {
+				removed.add(key);
+			}
+		}
+		if (removed.isEmpty()) {
+			return new ArrayList<String>(0);
+		}
+		String replacement = null;
+		if (removed.contains(selection)) {
+			for (String key : getAdjacentItems(selection)) {
+				if (!removed.contains(key)) {
+					replacement = key;
+					break;
+				}
+			}
+		}
+		boolean shownRemoved = removed.contains(shown);
+		setRedraw(false);
+		try {
+			for (String key : removed) {
+				forgetComposite(key);
+			}
+			if (removed.contains(selection)) {
+				selection = (replacement != null) ? replacement : ""; //$NON-NLS-1$
+			}
+			removeItems(removed);
+			selectItem(selection);
+			if (shownRemoved) {
+				showSelection();
+				this.layout();
+			}
+		} finally {
+			setRedraw(true);
+		}
+		return new ArrayList<String>(removed);
+	}
+
+	/**
+	 * Make the registered pages match a new key list. Keys that are no
+	 * longer listed are removed, new keys are registered with the factory,
+	 * and the selector is put in the order of the list, moving as few
+	 * entries as possible. Pages of keys that stay are left alone, and the
+	 * selection is kept if its key is still listed.
+	 *
+	 * @param keys the unique keys of all pages, in selector order
+	 * @param factory the callback that builds the contents of new pages
+	 */
+	public void setComposites(List<String> keys, IPageFactory factory) {
+		List<String> target = new ArrayList<String>(new LinkedHashSet<String>(keys));
+		String[] items = getItems();
+		if (Arrays.asList(items).equals(target)) {
+			return;
+		}
+		Set<String> listed = new HashSet<String>(target);
+		List<String> removed = new ArrayList<String>();
+		for (String item : items) {
+			if (!listed.contains(item)) {
+				removed.add(item);
+			}
+		}
+		setRedraw(false);
+		try {
+			if (!removed.isEmpty()) {
+				removeComposites(removed);
+				items = getItems();
+			}
+			for (String key : target) {
+				if (!map.containsKey(key)) {
+					if (factory != null) {
+						factories.put(key, factory);
+					}
+					map.put(key, null);
+				}
+			}
+			reorderItems(items, target);
+			selectItem(selection);
+			this.layout();
+		} finally {
+			setRedraw(true);
+		}
+	}
+
+	/**
+	 * Drop everything kept for a page, cancelling its load and disposing
+	 * its composite. The selector is not updated.
+	 *
+	 * @param key the key of the page
+	 */
+	private void forgetComposite(String key) {
+		IPageFactory factory = factories.remove(key);
+		if (factory instanceof LoadingPageFactory) {
+			((LoadingPageFactory) factory).cancel();
+		}
+		Composite composite = map.remove(key);
+		if (composite != null && !composite.isDisposed()) {
+			composite.dispose();
+		}
+		states.remove(key);
+		recent.remove(key);
+		prefetching.remove(key);
+		if (key.equals(shown)) {
+			shown = null;
+		}
+	}
+
+	/**
+	 * Register a page from any thread. The page is added on the display
+	 * thread with the other changes posted in the same tick.
+	 *
+	 * @param key the unique string identifier and text for the combo box entry
+	 * @param factory the callback that builds the page contents, may be null
+	 * @see #addComposite(String, IPageFactory)
+	 */
+	public void postComposite(String key, IPageFactory factory) {
+		mutations.postAdd(key, factory);
+	}
+
+	/**
+	 * Register a page whose data is loaded in the background, from any
+	 * thread. The page is added on the display thread with the other
+	 * changes posted in the same tick.
+	 *
+	 * @param key the unique string identifier and text for the combo box entry
+	 * @param loader the callback that loads the data and renders the page
+	 * @see #addComposite(String, IPageLoader)
+	 */
+	public void postComposite(String key, IPageLoader loader) {
+		mutations.postAdd(key, loader);
+	}
+
+	/**
+	 * Unregister a page from any thread. A page posted and removed within
+	 * the same tick is never created.
+	 *
+	 * @param key the key of the page
+	 * @see #removeComposite(String)
+	 */
+	public void postRemoveComposite(String key) {
+		mutations.postRemove(key);
+	}
+
+	/**
+	 * Select a page from any thread. Only the last selection posted within
+	 * a tick is shown, after the pages posted with it are registered. A
+	 * key that is not registered by then is ignored.
+	 *
+	 * @param key the key to select
+	 * @see #setSelection(String)
+	 */
+	public void postSelection(String key) {
+		mutations.postSelect(key);
+	}
+
+	/**
+	 * Apply a collapsed batch of posted changes, with a single update of the
+	 * selector and a single layout. Called by the {@link MutationQueue} on
+	 * the display thread.
+	 *
+	 * @param removed the keys to remove
+	 * @param added the keys to add and the factories of their pages
+	 * @param select the key to select, or null to keep the selection
+	 */
+	void applyMutations(List<String> removed, Map<String, IPageFactory> added, String select) {
+		setRedraw(false);
+		try {
+			if (!removed.isEmpty()) {
+				removeComposites(removed);
+			}
+			if (!registerComposites(added).isEmpty()) {
+				this.layout();
+			}
+			if (select != null && map.containsKey(select)) {
+				setSelection(select);
+			}
+		} finally {
+			setRedraw(true);
+		}
+	}
+
+	/**
+	 * Append a key to the selector.
+	 *
+	 * @param key the key to append
+	 */
+	private void addItem(String key) {
+		if (filteredSelector != null) {
+			filteredSelector.add(key);
+		} else {
+			comboCombo.add(key);
+		}
+	}
+
+	/**
+	 * Append many keys to the selector with a single update.
+	 *
+	 * @param keys the keys to append, in order
+	 */
+	private void addItems(List<String> keys) {
+		if (filteredSelector != null) {
+			filteredSelector.addAll(keys);
+			return;
+		}
+		String[] items = comboCombo.getItems();
+		String[] all = new String[items.length + keys.size()];
+		System.arraycopy(items, 0, all, 0, items.length);
+		for (int i = 0; i < keys.size(); i++) {
+			all[items.length + i] = keys.get(i);
+		}
+		comboCombo.setItems(all);
+		// setItems clears the text of the combo box
+		comboCombo.setText(selection);
+	}
+
+	/**
+	 * Remove keys from the selector with a single update.
+	 *
+	 * @param keys the keys to remove
+	 */
+	private void removeItems(Set<String> keys) {
+		if (filteredSelector != null) {
+			filteredSelector.removeAll(keys);
+			return;
+		}
+		if (keys.size() <= INCREMENTAL_ITEMS) {
+			for (String key : keys) {
+				int i = comboCombo.indexOf(key);
+				if (i >= 0) {
+					comboCombo.remove(i);
+				}
+			}
+			return;
+		}
+		String[] items = comboCombo.getItems();
+		List<String> kept = new ArrayList<String>(items.length);
+		for (String item : items) {
+			if (!keys.contains(item)) {
+				kept.add(item);
+			}
 		}
+		comboCombo.setItems(kept.toArray(new String[kept.size()]));
+		// setItems clears the text of the combo box
+		comboCombo.setText(selection);
+	}
+
+	/**
+	 * @return every key in the selector, in list order
+	 */
+	private String[] getItems() {
+		return (filteredSelector != null) ? filteredSelector.getKeys() : comboCombo.getItems();
+	}
+
+	/**
+	 * Put the keys of the selector in a new order, given the same set of
+	 * keys plus new ones. The combo box items that keep their relative
+	 * order stay in place, and only the others are removed and inserted
+	 * again at their new positions.
+	 *
+	 * @param items the current items
+	 * @param target all keys, in the new order
+	 */
+	private void reorderItems(String[] items, List<String> target) {
+		if (filteredSelector != null) {
+			filteredSelector.setAll(target);
+			return;
+		}
+		Map<String, Integer> positions = new HashMap<String, Integer>(items.length * 2);
+		for (int i = 0; i < items.length; i++) {
+			positions.put(items[i], Integer.valueOf(i));
+		}
+		// the old positions of the kept keys, in the new order
+		int[] sequence = new int[target.size()];
+		int n = 0;
+		for (String key : target) {
+			Integer position = positions.get(key);
+			if (position != null) {
+				sequence[n++] = position.intValue();
+			}
+		}
+		boolean[] stay = longestIncreasing(sequence, n);
+		Set<String> moved = new HashSet<String>();
+		for (int i = 0; i < n; i++) {
+			if (!stay[i]) {
+				moved.add(items[sequence[i]]);
+			}
+		}
+		int inserts = moved.size() + target.size() - n;
+		if (moved.size() + inserts > INCREMENTAL_ITEMS) {
+			comboCombo.setItems(target.toArray(new String[target.size()]));
+			comboCombo.setText(selection);
+			return;
+		}
+		// take the moved keys out, last first so the positions stay valid
+		for (int i = items.length - 1; i >= 0; i--) {
+			if (moved.contains(items[i])) {
+				comboCombo.remove(i);
+			}
+		}
+		// what is left is in target order; insert the rest front to back
+		for (int i = 0; i < target.size(); i++) {
+			String key = target.get(i);
+			if (moved.contains(key) || !positions.containsKey(key)) {
+				comboCombo.add(key, i);
+			}
+		}
+	}
+
+	/**
+	 * Find a longest strictly increasing subsequence, in O(n log n).
+	 *
+	 * @param sequence the values
+	 * @param n the number of values used
+	 * @return true for each value that belongs to the subsequence
+	 */
+	private static boolean[] longestIncreasing(int[] sequence, int n) {
+		// tails[k]: index of the smallest last value of a run of length k+1
+		int[] tails = new int[n];
+		int[] previous = new int[n];
+		int length = 0;
+		for (int i = 0; i < n; i++) {
+			int low = 0;
+			int high = length;
+			while (low < high) {
+				int mid = (low + high) >>> 1;
+				if (sequence[tails[mid]] < sequence[i]) {
+					low = mid + 1;
+				} else {
+					high = mid;
+				}
+			}
+			previous[i] = (low > 0) ? tails[low - 1] : -1;
+			tails[low] = i;
+			if (low == length) {
+				length++;
+			}
+		}
+		boolean[] member = new boolean[n];
+		for (int i = (length > 0) ? tails[length - 1] : -1; i >= 0; i = previous[i]) {
+			member[i] = true;
+		}
+		return member;
+	}
+
+	/**
+	 * @param key a key in the selector
+	 * @return the keys listed just before and after the key in the selector
+	 */
+	private List<String> getAdjacentItems(String key) {
+		List<String> adjacent = new ArrayList<String>(2);
+		String[] items;
+		int i;
+		if (filteredSelector != null) {
+			items = filteredSelector.getItems();
+			i = Arrays.asList(items).indexOf(key);
+		} else {
+			items = null;
+			i = comboCombo.indexOf(key);
+		}
+		if (i < 0) {
+			return adjacent;
+		}
+		int count = (items != null) ? items.length : comboCombo.getItemCount();
+		for (int j = i - 1; j <= i + 1; j += 2) {
+			if (j >= 0 && j < count) {
+				adjacent.add((items != null) ? items[j] : comboCombo.getItem(j));
+			}
+		}
+		return adjacent;
+	}
+
+	/**
+	 * Show the selected key in the selector.
+	 *
+	 * @param key the selected key
+	 */
+	private void selectItem(String key) {
+		if (filteredSelector != null) {
+			filteredSelector.select(key);
+		} else {
+			comboCombo.setText(key);
+		}
+	}
+
+	/**
+	 * Create the empty page composite for the key, and let the registered
+	 * factory, if any, fill it in.
+	 *
+	 * @param key the key of the page
+	 * @return the new composite
+	 */
+	protected Composite createComposite(String key) {
 		final Composite composite = new Composite(this, SWT.None);
 		final GridData gd = new GridData(SWT.FILL, SWT.FILL, true, true, 2, 1);
 		composite.setLayoutData(gd);
 		gd.exclude = true;
-		map.put(key, composite);
-		comboCombo.add(key);
+		IPageFactory factory = factories.get(key);
+		if (factory != null) {
+			factory.createContents(composite, key);
+		}
 		return composite;
 	}
 
+	/**
+	 * Dispose a built page, saving its state first when the factory
+	 * supports it. The key stays registered, and the page is rebuilt the
+	 * next time it is requested.
+	 *
+	 * @param key the key of the page to evict
+	 */
+	protected void evictComposite(String key) {
+		Composite composite = map.get(key);
+		if (composite == null) {
+			return;
+		}
+		IPageFactory factory = factories.get(key);
+		Object state = null;
+		if (factory instanceof IHibernatingPageFactory) {
+			state = ((IHibernatingPageFactory) factory).saveState(composite, key);
+		}
+		states.put(key, state);
+		composite.dispose();
+		map.put(key, null);
+		recent.remove(key);
+		cacheEvictions++;
+	}
+
+	/**
+	 * @param key the unique string identifier and text for the combo box entry
+	 * @return the composite associated with the key
+	 */
+	public Composite getComposite(String key) {
+		long start = Perf.COMBO_GET.start();
+		try {
+			Composite composite = map.get(key);
+			if (composite != null) {
+				cacheHits++;
+				touchComposite(key);
+				return composite;
+			}
+			if (!map.containsKey(key)) {
+				addItem(key);
+			}
+			composite = createComposite(key);
+			map.put(key, composite);
+			Perf.COMBO_PAGES_BUILT.increment();
+			if (states.containsKey(key)) {
+				// rebuilding an evicted page
+				Object state = states.remove(key);
+				IPageFactory factory = factories.get(key);
+				if (factory instanceof IHibernatingPageFactory) {
+					((IHibernatingPageFactory) factory).restoreState(composite, key, state);
+				}
+				cacheRebuilds++;
+			}
+			touchComposite(key);
+			trimCache(key);
+			return composite;
+		} finally {
+			Perf.COMBO_GET.stop(start);
+		}
+	}
+
+	/**
+	 * @return the number of requests for a page that was already built
+	 */
+	public long getCacheHits() {
+		return cacheHits;
+	}
+
+	/**
+	 * @return the number of pages disposed to honor the cache limit
+	 */
+	public long getCacheEvictions() {
+		return cacheEvictions;
+	}
+
+	/**
+	 * @return the maximum number of built pages, or 0 for no limit
+	 */
+	public int getCacheLimit() {
+		return cacheLimit;
+	}
+
+	/**
+	 * @return the number of evicted pages that were built again
+	 */
+	public long getCacheRebuilds() {
+		return cacheRebuilds;
+	}
+
+	/**
+	 * @param key the key of the page
+	 * @return true if the composite for the key has been created
+	 */
+	public boolean isCreated(String key) {
+		return map.get(key) != null;
+	}
+
 	/**
 	 * @return the label
 	 */
@@ -147,6 +824,39 @@ public class ComboComposites extends Composite {
 		return selection;
 	}
 
+	/**
+	 * Reset the hit, eviction and rebuild counters to zero.
+	 */
+	public void resetCacheStatistics() {
+		cacheHits = 0;
+		cacheEvictions = 0;
+		cacheRebuilds = 0;
+	}
+
+	/**
+	 * Limit the number of pages that stay built at once. Only pages
+	 * registered with a factory can be evicted, and the selected page never
+	 * is, so the number of built pages can exceed a very small limit.
+	 *
+	 * @param cacheLimit the maximum number of built pages, or 0 for no limit
+	 */
+	public void setCacheLimit(int cacheLimit) {
+		this.cacheLimit = Math.max(0, cacheLimit);
+		trimCache(null);
+	}
+
+	/**
+	 * Load the data of the pages next to the selected one in the selector
+	 * ahead of time. Only pages registered with an {@link IPageLoader} are
+	 * prefetched.
+	 *
+	 * @param prefetch true to prefetch the neighbors of the selected page
+	 */
+	public void setPrefetch(boolean prefetch) {
+		this.prefetch = prefetch;
+		updatePrefetch(null);
+	}
+
 	/**
 	 * @param label the label to set
 	 */
@@ -164,29 +874,146 @@ public class ComboComposites extends Composite {
 	/**
 	 * The composite associated with the key will be displayed. All other
 	 * composites will be hidden.
+	 * <p>
+	 * While the control is visible, the switch is deferred to the next pass
+	 * of the event loop, so a burst of selections, such as holding an arrow
+	 * key in the combo box, results in a single relayout of the final page.
 	 *
 	 * @param selection the key to select in the combo box
 	 */
 	public void setSelection(String key) {
+		long start = Perf.COMBO_SELECT.start();
 		if (!key.equals(selection)) {
-			// hide currently selected composite if it exists
-			if (map.containsKey(selection)) {
-				Composite c = map.get(selection);
-				if (c != null) {
-					hideComposite(c, true);
-				}
+			// save the newly selected key
+			this.selection = key;
+			if (isVisible()) {
+				scheduleShowSelection();
+			} else {
+				showSelection();
 			}
-			// show newly selected composite if it exists
-			if (map.containsKey(key)) {
-				Composite c = map.get(key);
-				if (c != null) {
-					hideComposite(c, false);
+		}
+		selectItem(selection);
+		Perf.COMBO_SELECT.stop(start);
+	}
+
+	/**
+	 * Swap the displayed composite for the selected one, and lay out only
+	 * the two composites that changed.
+	 */
+	protected void showSelection() {
+		showPending = false;
+		if (selection.equals(shown)) {
+			return;
+		}
+		long start = Perf.COMBO_SHOW.start();
+		List<Control> changed = new ArrayList<Control>(2);
+		// hide currently displayed composite if it exists
+		Composite previous = (shown != null) ? map.get(shown) : null;
+		if (previous != null && !previous.isDisposed()) {
+			hideComposite(previous, true);
+			changed.add(previous);
+		}
+		String previousKey = shown;
+		shown = selection;
+		// show newly selected composite, creating it on first use
+		if (map.containsKey(selection)) {
+			Composite c = getComposite(selection);
+			hideComposite(c, false);
+			changed.add(c);
+			// resume a load that was cancelled when the page was last hidden
+			IPageFactory factory = factories.get(selection);
+			if (factory instanceof LoadingPageFactory) {
+				((LoadingPageFactory) factory).load();
+			}
+		}
+		if (!changed.isEmpty()) {
+			this.layout(changed.toArray(new Control[changed.size()]));
+		}
+		updatePrefetch(previousKey);
+		Perf.COMBO_SHOW.stop(start);
+	}
+
+	/**
+	 * Cancel the loads that are no longer needed, because their page is
+	 * neither selected nor next to the selected page, and start prefetching
+	 * the neighbors of the selected page if enabled.
+	 *
+	 * @param previous the key of the page that was displayed before, may be null
+	 */
+	private void updatePrefetch(String previous) {
+		Set<String> wanted = new HashSet<String>();
+		if (prefetch && map.containsKey(selection)) {
+			wanted.addAll(getAdjacentItems(selection));
+		}
+		Set<String> stale = new HashSet<String>(prefetching);
+		if (previous != null) {
+			stale.add(previous);
+		}
+		for (String key : stale) {
+			IPageFactory factory = factories.get(key);
+			if (factory instanceof LoadingPageFactory && !key.equals(selection)
+					&& !wanted.contains(key)) {
+				((LoadingPageFactory) factory).cancel();
+			}
+		}
+		for (String key : wanted) {
+			IPageFactory factory = factories.get(key);
+			if (factory instanceof LoadingPageFactory) {
+				((LoadingPageFactory) factory).load();
+			}
+		}
+		prefetching = wanted;
+	}
+
+	/**
+	 * Coalesce selection changes that arrive within one pass of the event
+	 * loop into a single call to {@link #showSelection()}.
+	 */
+	private void scheduleShowSelection() {
+		if (showPending) {
+			return;
+		}
+		showPending = true;
+		getDisplay().asyncExec(new Runnable() {
+			public void run() {
+				if (!isDisposed() && showPending) {
+					showSelection();
 				}
 			}
-			this.layout();
-			// save the newly selected key
-			this.selection = key;
+		});
+	}
+
+	/**
+	 * Mark the page as the most recently used.
+	 *
+	 * @param key the key of a built page
+	 */
+	private void touchComposite(String key) {
+		recent.remove(key);
+		recent.add(key);
+	}
+
+	/**
+	 * Evict least recently used pages until the cache limit is honored.
+	 *
+	 * @param keep the key of a page that must not be evicted, may be null
+	 */
+	private void trimCache(String keep) {
+		if (cacheLimit <= 0 || recent.size() <= cacheLimit) {
+			return;
+		}
+		int excess = recent.size() - cacheLimit;
+		List<String> victims = new ArrayList<String>(excess);
+		Iterator<String> it = recent.iterator();
+		while (it.hasNext() && victims.size() < excess) {
+			String key = it.next();
+			if (factories.containsKey(key) && !key.equals(keep) && !key.equals(selection)
+					&& !key.equals(shown)) {
+				victims.add(key);
+			}
+		}
+		for (String key : victims) {
+			evictComposite(key);
 		}
-		comboCombo.setText(selection);
 	}
 }
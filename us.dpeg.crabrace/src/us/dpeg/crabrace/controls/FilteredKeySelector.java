@@ -0,0 +1,170 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Search box and virtual list used by ComboComposites in place of
+ *     the combo box when there are many keys.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.controls;
+
+import java.util.Collection;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Event;
+import org.eclipse.swt.widgets.Listener;
+import org.eclipse.swt.widgets.Table;
+import org.eclipse.swt.widgets.TableItem;
+import org.eclipse.swt.widgets.Text;
+
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Type-ahead selector for {@link ComboComposites}. The keys are filtered
+ * through a {@link KeyIndex} as the user types, and the matches are shown
+ * in a virtual table, so only the rows on screen are ever populated.
+ * Picking a row calls {@link ComboComposites#setSelection(String)}.
+ *
+ * @author dpurnhagen
+ */
+class FilteredKeySelector extends Composite {
+	private static final int VISIBLE_ROWS = 8;
+
+	private ComboComposites owner;
+	private KeyIndex index;
+	private Text txtFilter;
+	private Table tblKeys;
+	private String[] matches;
+
+	/**
+	 * @param owner the control whose selection is driven by this selector
+	 */
+	FilteredKeySelector(ComboComposites owner) {
+		super(owner, SWT.NONE);
+		this.owner = owner;
+		this.index = new KeyIndex();
+		this.matches = new String[0];
+
+		GridLayout layout = new GridLayout(1, false);
+		layout.marginWidth = 0;
+		layout.marginHeight = 0;
+		setLayout(layout);
+
+		txtFilter = new Text(this, SWT.SEARCH | SWT.ICON_CANCEL | SWT.BORDER);
+		txtFilter.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		txtFilter.setMessage(Messages.ComboComposites_FilterMessage);
+		txtFilter.addModifyListener(new ModifyListener() {
+			public void modifyText(ModifyEvent e) {
+				refresh();
+			}
+		});
+
+		tblKeys = new Table(this, SWT.VIRTUAL | SWT.SINGLE | SWT.BORDER | SWT.FULL_SELECTION);
+		GridData gdKeys = new GridData(SWT.FILL, SWT.FILL, true, false);
+		gdKeys.heightHint = tblKeys.getItemHeight() * VISIBLE_ROWS;
+		tblKeys.setLayoutData(gdKeys);
+		tblKeys.addListener(SWT.SetData, new Listener() {
+			public void handleEvent(Event event) {
+				TableItem item = (TableItem) event.item;
+				// the row comes with the event; indexOf would scan the table
+				int row = event.index;
+				if (row >= 0 && row < matches.length) {
+					item.setText(matches[row]);
+				}
+			}
+		});
+		tblKeys.addSelectionListener(new SelectionAdapter() {
+			public void widgetSelected(SelectionEvent e) {
+				int row = tblKeys.getSelectionIndex();
+				if (row >= 0 && row < matches.length) {
+					FilteredKeySelector.this.owner.setSelection(matches[row]);
+				}
+			}
+		});
+	}
+
+	/**
+	 * @param key the key to append
+	 */
+	void add(String key) {
+		index.add(key);
+		refresh();
+	}
+
+	/**
+	 * @param keys the keys to append, in order
+	 */
+	void addAll(Collection<String> keys) {
+		index.addAll(keys);
+		refresh();
+	}
+
+	/**
+	 * @param keys the keys to remove
+	 */
+	void removeAll(Collection<String> keys) {
+		index.removeAll(keys);
+		refresh();
+	}
+
+	/**
+	 * @param keys all keys, in order
+	 */
+	void setAll(Collection<String> keys) {
+		index.setAll(keys);
+		refresh();
+	}
+
+	/**
+	 * @return every key, in registration order
+	 */
+	String[] getKeys() {
+		return index.getKeys();
+	}
+
+	/**
+	 * @return the keys that pass the current filter, in list order
+	 */
+	String[] getItems() {
+		return matches;
+	}
+
+	/**
+	 * Highlight the key in the list, if it passes the current filter.
+	 *
+	 * @param key the selected key
+	 */
+	void select(String key) {
+		for (int row = 0; row < matches.length; row++) {
+			if (matches[row].equals(key)) {
+				if (tblKeys.getSelectionIndex() != row) {
+					tblKeys.setSelection(row);
+				}
+				return;
+			}
+		}
+		tblKeys.deselectAll();
+	}
+
+	/**
+	 * Run the filter again and repopulate the virtual table.
+	 */
+	private void refresh() {
+		matches = index.find(txtFilter.getText());
+		tblKeys.clearAll();
+		tblKeys.setItemCount(matches.length);
+		select(owner.getSelection());
+	}
+}
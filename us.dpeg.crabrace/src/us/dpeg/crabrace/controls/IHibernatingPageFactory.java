@@ -0,0 +1,47 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Page factory that can save and restore the state of a page, so the
+ *     page can be disposed while hidden and rebuilt later.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.controls;
+
+import org.eclipse.swt.widgets.Composite;
+
+/**
+ * A page factory whose pages survive being evicted from the page cache of
+ * {@link ComboComposites}. Before an idle page is disposed,
+ * {@link #saveState(Composite, String)} captures whatever the user has
+ * entered. When the page is selected again, it is rebuilt with
+ * {@link #createContents(Composite, String)} and then handed the saved state
+ * through {@link #restoreState(Composite, String, Object)}.
+ *
+ * @author dpurnhagen
+ */
+public interface IHibernatingPageFactory extends IPageFactory {
+
+	/**
+	 * Capture the state of a page that is about to be disposed.
+	 *
+	 * @param composite the page composite, still alive
+	 * @param key the key of the page
+	 * @return the saved state, may be null
+	 */
+	Object saveState(Composite composite, String key);
+
+	/**
+	 * Restore the state of a page that has just been rebuilt.
+	 *
+	 * @param composite the rebuilt page composite
+	 * @param key the key of the page
+	 * @param state the state returned by the last call to saveState
+	 */
+	void restoreState(Composite composite, String key, Object state);
+}
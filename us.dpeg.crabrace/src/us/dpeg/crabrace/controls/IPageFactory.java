@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Callback that builds the contents of a ComboComposites page.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.controls;
+
+import org.eclipse.swt.widgets.Composite;
+
+/**
+ * Builds the widgets of a page registered with
+ * {@link ComboComposites#addComposite(String, IPageFactory)}. The factory
+ * is not called until the page is shown for the first time, so pages that
+ * are never selected cost nothing but their key.
+ *
+ * @author dpurnhagen
+ */
+public interface IPageFactory {
+
+	/**
+	 * Create the contents of the page. The composite has already been
+	 * created and given its layout data; the factory is responsible for
+	 * setting a layout and adding the child widgets.
+	 *
+	 * @param composite the empty page composite
+	 * @param key the key the page was registered with
+	 */
+	void createContents(Composite composite, String key);
+}
@@ -0,0 +1,51 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Two step contract for ComboComposites pages whose data is loaded
+ *     in the background.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.controls;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.swt.widgets.Composite;
+
+/**
+ * A page registered with
+ * {@link ComboComposites#addComposite(String, IPageLoader)}. The data for the
+ * page is fetched by {@link #load(String, IProgressMonitor)} in a background
+ * job, while the page shows a placeholder. The widgets are then built on the
+ * display thread by {@link #render(Composite, String, Object)}.
+ *
+ * @author dpurnhagen
+ */
+public interface IPageLoader {
+
+	/**
+	 * Fetch the data for a page. Called from a background job, never from
+	 * the display thread, so no widgets may be touched here. The load is
+	 * cancelled through the monitor when the page is no longer needed.
+	 *
+	 * @param key the key of the page
+	 * @param monitor the progress monitor of the job
+	 * @return the data to hand to render, may be null
+	 * @throws CoreException if the data could not be fetched
+	 */
+	Object load(String key, IProgressMonitor monitor) throws CoreException;
+
+	/**
+	 * Build the page from its data. Called on the display thread.
+	 *
+	 * @param composite the empty page composite
+	 * @param key the key of the page
+	 * @param data the value returned by load
+	 */
+	void render(Composite composite, String key, Object data);
+}
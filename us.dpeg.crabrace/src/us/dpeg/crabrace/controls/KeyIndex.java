@@ -0,0 +1,195 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Index of page keys for prefix and substring filtering.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.controls;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Keeps the keys of a {@link ComboComposites} in registration order, plus a
+ * case-insensitive sorted index that answers prefix queries with a binary
+ * search. Substring matches are found with a scan of the lower-cased keys,
+ * and are listed after the prefix matches. The sorted index is rebuilt
+ * lazily on the first query after the keys change.
+ *
+ * @author dpurnhagen
+ */
+public class KeyIndex {
+	private static final String[] NONE = new String[0];
+
+	private List<String> keys;
+	private Entry[] sorted;
+
+	/**
+	 * A key and its lower-case form, ordered by the lower-case form.
+	 */
+	private static class Entry implements Comparable<Entry> {
+		final String key;
+		final String lower;
+
+		Entry(String key) {
+			this.key = key;
+			this.lower = key.toLowerCase(Locale.ENGLISH);
+		}
+
+		@Override
+		public int compareTo(Entry other) {
+			int result = lower.compareTo(other.lower);
+			return (result != 0) ? result : key.compareTo(other.key);
+		}
+	}
+
+	public KeyIndex() {
+		keys = new ArrayList<String>();
+		sorted = null;
+	}
+
+	/**
+	 * @param key the key to append
+	 */
+	public void add(String key) {
+		keys.add(key);
+		sorted = null;
+	}
+
+	/**
+	 * @param added the keys to append, in order
+	 */
+	public void addAll(Collection<String> added) {
+		keys.addAll(added);
+		sorted = null;
+	}
+
+	/**
+	 * @param key the key to remove
+	 * @return true if the key was present
+	 */
+	public boolean remove(String key) {
+		boolean removed = keys.remove(key);
+		if (removed) {
+			sorted = null;
+		}
+		return removed;
+	}
+
+	/**
+	 * @param removed the keys to remove
+	 * @return true if any key was present
+	 */
+	public boolean removeAll(Collection<String> removed) {
+		boolean changed = keys.removeAll(removed);
+		if (changed) {
+			sorted = null;
+		}
+		return changed;
+	}
+
+	/**
+	 * Replace all keys.
+	 *
+	 * @param replacement the new keys, in order
+	 */
+	public void setAll(Collection<String> replacement) {
+		keys = new ArrayList<String>(replacement);
+		sorted = null;
+	}
+
+	/**
+	 * @return the number of keys
+	 */
+	public int size() {
+		return keys.size();
+	}
+
+	/**
+	 * @return all keys, in registration order
+	 */
+	public String[] getKeys() {
+		return keys.toArray(new String[keys.size()]);
+	}
+
+	/**
+	 * Find the keys matching a filter, ignoring case. Keys that start with
+	 * the filter come first, in alphabetical order, followed by keys that
+	 * contain it elsewhere, also in alphabetical order. An empty filter
+	 * matches every key, in registration order.
+	 *
+	 * @param filter the text typed by the user
+	 * @return the matching keys
+	 */
+	public String[] find(String filter) {
+		if (filter == null || filter.length() == 0) {
+			return getKeys();
+		}
+		if (keys.isEmpty()) {
+			return NONE;
+		}
+		Entry[] index = getSorted();
+		String lower = filter.toLowerCase(Locale.ENGLISH);
+		int first = lowerBound(index, lower);
+		int last = first;
+		while (last < index.length && index[last].lower.startsWith(lower)) {
+			last++;
+		}
+		List<String> matches = new ArrayList<String>(last - first);
+		for (int i = first; i < last; i++) {
+			matches.add(index[i].key);
+		}
+		for (int i = 0; i < first; i++) {
+			if (index[i].lower.indexOf(lower) > 0) {
+				matches.add(index[i].key);
+			}
+		}
+		for (int i = last; i < index.length; i++) {
+			if (index[i].lower.indexOf(lower) > 0) {
+				matches.add(index[i].key);
+			}
+		}
+		return matches.toArray(new String[matches.size()]);
+	}
+
+	/**
+	 * @return the sorted index, rebuilding it if the keys have changed
+	 */
+	private Entry[] getSorted() {
+		if (sorted == null) {
+			Entry[] array = new Entry[keys.size()];
+			for (int i = 0; i < array.length; i++) {
+				array[i] = new Entry(keys.get(i));
+			}
+			Arrays.sort(array);
+			sorted = array;
+		}
+		return sorted;
+	}
+
+	/**
+	 * @return the position of the first entry not less than the prefix
+	 */
+	private static int lowerBound(Entry[] index, String prefix) {
+		int low = 0;
+		int high = index.length;
+		while (low < high) {
+			int mid = (low + high) >>> 1;
+			if (index[mid].lower.compareTo(prefix) < 0) {
+				low = mid + 1;
+			} else {
+				high = mid;
+			}
+		}
+		return low;
+	}
+}
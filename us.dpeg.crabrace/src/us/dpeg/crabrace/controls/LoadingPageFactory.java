@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Page factory that shows a placeholder while an IPageLoader fetches
+ *     the page data in a background job.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.controls;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.Label;
+
+import us.dpeg.crabrace.Activator;
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Adapts an {@link IPageLoader} to the {@link IPageFactory} contract used by
+ * {@link ComboComposites}. The page starts with a placeholder label, the data
+ * is loaded by a {@link Job}, and the placeholder is replaced by the rendered
+ * page when the data arrives. The data is kept, so a page that is evicted
+ * from the page cache is rendered again without another load.
+ * <p>
+ * All methods except the job body run on the display thread.
+ *
+ * @author dpurnhagen
+ */
+class LoadingPageFactory implements IPageFactory {
+	private final IPageLoader loader;
+	private final String key;
+	private final Display display;
+	private Job job;
+	private boolean loaded;
+	private Object data;
+	private Composite composite;
+	private Label placeholder;
+
+	/**
+	 * @param loader the loader of the page
+	 * @param key the key of the page
+	 * @param display the display to render on
+	 */
+	LoadingPageFactory(IPageLoader loader, String key, Display display) {
+		this.loader = loader;
+		this.key = key;
+		this.display = display;
+		this.loaded = false;
+	}
+
+	/* (non-Javadoc)
+	 * @see us.dpeg.crabrace.controls.IPageFactory#createContents(org.eclipse.swt.widgets.Composite, java.lang.String)
+	 */
+	@Override
+	public void createContents(Composite composite, String key) {
+		if (loaded) {
+			loader.render(composite, key, data);
+			return;
+		}
+		this.composite = composite;
+		composite.setLayout(new GridLayout(1, false));
+		placeholder = new Label(composite, SWT.NONE);
+		placeholder.setLayoutData(new GridData(SWT.BEGINNING, SWT.BEGINNING, false, false));
+		placeholder.setText(Messages.ComboComposites_LabelLoading);
+		load();
+	}
+
+	/**
+	 * Start loading the data, unless it is loaded or already loading.
+	 */
+	void load() {
+		if (loaded || job != null) {
+			return;
+		}
+		job = new Job(NLS.bind(Messages.ComboComposites_JobLoad, key)) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				try {
+					final Object result = loader.load(key, monitor);
+					if (monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					deliver(this, result, null);
+					return Status.OK_STATUS;
+				} catch (CoreException e) {
+					deliver(this, null, e.getStatus());
+					return e.getStatus();
+				} catch (RuntimeException e) {
+					if (monitor.isCanceled()) {
+						return Status.CANCEL_STATUS;
+					}
+					// a failed load must still clear the job, or the page
+					// would show the placeholder for good
+					IStatus error = new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+							NLS.bind(Messages.ComboComposites_ErrorLoad, key), e);
+					deliver(this, null, error);
+					return error;
+				}
+			}
+		};
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	/**
+	 * Cancel a load in progress. The page keeps its placeholder, and the
+	 * load starts over the next time {@link #load()} is called.
+	 */
+	void cancel() {
+		if (job != null) {
+			job.cancel();
+			job = null;
+		}
+	}
+
+	/**
+	 * @return true if a load is in progress
+	 */
+	boolean isLoading() {
+		return job != null;
+	}
+
+	/**
+	 * Hand the result of a job to the display thread.
+	 */
+	private void deliver(final Job source, final Object result, final IStatus error) {
+		if (display.isDisposed()) {
+			return;
+		}
+		display.asyncExec(new Runnable() {
+			public void run() {
+				if (job != source) {
+					// cancelled or superseded while the result was in flight
+					return;
+				}
+				job = null;
+				if (error != null) {
+					if (placeholder != null && !placeholder.isDisposed()) {
+						placeholder.setText(error.getMessage());
+					}
+					return;
+				}
+				data = result;
+				loaded = true;
+				render();
+			}
+		});
+	}
+
+	/**
+	 * Replace the placeholder of the waiting page with the rendered page.
+	 */
+	private void render() {
+		Composite target = composite;
+		composite = null;
+		placeholder = null;
+		if (target == null || target.isDisposed()) {
+			return;
+		}
+		for (Control child : target.getChildren()) {
+			child.dispose();
+		}
+		loader.render(target, key, data);
+		target.layout(true, true);
+	}
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Queue of page registrations, removals and selections for
+ *     ComboComposites, posted from any thread.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.controls;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Collects the mutations posted to a {@link ComboComposites} from any
+ * thread in a lock-free queue, and applies them on the display thread in
+ * one batch per tick. At most one drain is scheduled at a time, however
+ * many mutations are posted.
+ * <p>
+ * Before a batch is applied it is collapsed: an add followed by a remove
+ * of the same key cancels out, a remove followed by an add replaces the
+ * page, a second add of a key keeps the first, as
+ * {@link ComboComposites#addComposite(String, IPageFactory)} would, and
+ * only the last selection is kept.
+ *
+ * @author dpurnhagen
+ */
+class MutationQueue {
+	/** Milliseconds mutations are collected before they are applied */
+	static final int TICK_MILLIS = 20;
+
+	/**
+	 * One posted mutation. The page source is an {@link IPageFactory} or an
+	 * {@link IPageLoader}, and may be null for an empty page.
+	 */
+	private static class Mutation {
+		static final int ADD = 0;
+		static final int REMOVE = 1;
+		static final int SELECT = 2;
+
+		final int kind;
+		final String key;
+		final Object source;
+
+		Mutation(int kind, String key, Object source) {
+			this.kind = kind;
+			this.key = key;
+			this.source = source;
+		}
+	}
+
+	/**
+	 * The net effect of a batch on one key: removed first, then added if
+	 * an add came after the last remove.
+	 */
+	private static class Net {
+		boolean remove;
+		boolean add;
+		Object source;
+	}
+
+	private final ComboComposites owner;
+	private final Display display;
+	private final ConcurrentLinkedQueue<Mutation> queue = new ConcurrentLinkedQueue<Mutation>();
+	private final AtomicBoolean drainScheduled = new AtomicBoolean(false);
+
+	/**
+	 * @param owner the control the mutations are applied to
+	 */
+	MutationQueue(ComboComposites owner) {
+		this.owner = owner;
+		this.display = owner.getDisplay();
+	}
+
+	void postAdd(String key, Object source) {
+		post(new Mutation(Mutation.ADD, key, source));
+	}
+
+	void postRemove(String key) {
+		post(new Mutation(Mutation.REMOVE, key, null));
+	}
+
+	void postSelect(String key) {
+		post(new Mutation(Mutation.SELECT, key, null));
+	}
+
+	private void post(Mutation mutation) {
+		queue.add(mutation);
+		scheduleDrain();
+	}
+
+	/**
+	 * Make sure one drain is scheduled on the display thread.
+	 */
+	private void scheduleDrain() {
+		if (display.isDisposed() || !drainScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		display.asyncExec(new Runnable() {
+			public void run() {
+				if (!display.isDisposed()) {
+					display.timerExec(TICK_MILLIS, drainer);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Apply everything posted so far, on the display thread.
+	 */
+	private final Runnable drainer = new Runnable() {
+		public void run() {
+			drainScheduled.set(false);
+			if (!owner.isDisposed()) {
+				drain();
+			}
+		}
+	};
+
+	/**
+	 * Collapse the posted mutations and apply what is left.
+	 */
+	void drain() {
+		Map<String, Net> nets = new LinkedHashMap<String, Net>();
+		String selection = null;
+		Mutation mutation;
+		while ((mutation = queue.poll()) != null) {
+			if (mutation.kind == Mutation.SELECT) {
+				selection = mutation.key;
+				continue;
+			}
+			Net net = nets.get(mutation.key);
+			if (net == null) {
+				net = new Net();
+				nets.put(mutation.key, net);
+			}
+			if (mutation.kind == Mutation.ADD) {
+				if (!net.add) {
+					net.add = true;
+					net.source = mutation.source;
+				}
+			} else {
+				// a remove cancels an earlier add; removing a key that is
+				// not registered does nothing
+				net.remove = true;
+				net.add = false;
+				net.source = null;
+			}
+		}
+		List<String> removed = new ArrayList<String>();
+		Map<String, IPageFactory> added = new LinkedHashMap<String, IPageFactory>();
+		for (Map.Entry<String, Net> entry : nets.entrySet()) {
+			Net net = entry.getValue();
+			if (net.remove) {
+				removed.add(entry.getKey());
+			}
+			if (net.add) {
+				added.put(entry.getKey(), toFactory(entry.getKey(), net.source));
+			}
+		}
+		owner.applyMutations(removed, added, selection);
+	}
+
+	private IPageFactory toFactory(String key, Object source) {
+		if (source instanceof IPageLoader) {
+			return new LoadingPageFactory((IPageLoader) source, key, display);
+		}
+		return (IPageFactory) source;
+	}
+}
@@ -0,0 +1,30 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Kinds of text that a CopyableDialog can highlight.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.dialogs;
+
+/**
+ * The kind of text shown by a {@link CopyableDialog}, which selects how its
+ * lines are highlighted.
+ *
+ * @author dpurnhagen
+ */
+public enum ContentType {
+	/** No highlighting. */
+	PLAIN,
+	/** JSON keys, strings, numbers and literals. */
+	JSON,
+	/** XML tags, attributes, values and comments. */
+	XML,
+	/** Log levels such as ERROR, WARN, INFO and DEBUG. */
+	LOG
+}
@@ -13,36 +13,138 @@
  */
 package us.dpeg.crabrace.dialogs;
 
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.OperationCanceledException;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
 import org.eclipse.jface.dialogs.Dialog;
 import org.eclipse.jface.dialogs.IDialogConstants;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.osgi.util.NLS;
 import org.eclipse.swt.SWT;
 import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
 import org.eclipse.swt.dnd.Clipboard;
 import org.eclipse.swt.dnd.TextTransfer;
 import org.eclipse.swt.dnd.Transfer;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.events.KeyAdapter;
+import org.eclipse.swt.events.KeyEvent;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
 import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.graphics.Point;
 import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Display;
+import org.eclipse.swt.widgets.FileDialog;
+import org.eclipse.swt.widgets.Label;
 import org.eclipse.swt.widgets.Shell;
 
+import us.dpeg.crabrace.Activator;
 import us.dpeg.crabrace.Messages;
+import us.dpeg.crabrace.perf.Perf;
 
 /**
  * Simple, resizable dialog box with a single text widget, a button to
  * copy the contents of the text widget to the clipboard, and an OK button.
+ * <p>
+ * Instead of a message, the dialog can show a file with
+ * {@link #setPath(Path)}. The file is memory-mapped through a
+ * {@link MappedFileContent}, so even very large files open without loading
+ * them into memory. Copy All is limited to {@link #COPY_LIMIT} characters.
+ * <p>
+ * Copy places only the selected text on the clipboard. Export streams the
+ * whole text to a file, gzip compressed if the file name ends with .gz,
+ * without building another copy of it in memory.
+ * <p>
+ * Background threads can stream text into the dialog with
+ * {@link #append(String)}. Appended text is buffered and flushed to the text
+ * widget in batches every few milliseconds, using one
+ * asyncExec per batch rather than one per call. Only the last
+ * {@link #setScrollback(int) scrollback} lines are kept.
+ * <p>
+ * A find bar above the text searches it incrementally, with plain text or
+ * regular expressions, in a background job. Only the matches on visible
+ * lines are highlighted.
+ * <p>
+ * With {@link #setContentType(ContentType)}, JSON, XML or log output is
+ * highlighted. Lines are tokenized only when they are drawn, and their
+ * tokens are cached, so the document is never styled up front.
+ * <p>
+ * Lines longer than {@link #LONG_LINE_LIMIT} are shown truncated, so the
+ * text widget never has to measure them, and a bar offers to pretty-print
+ * or reflow the text in a background job. Copy All and Export always use
+ * the original text.
  *
  * @author dpurnhagen
  */
 public class CopyableDialog extends Dialog {
+	/** The largest text, in characters, that is placed on the clipboard. */
+	public static final int COPY_LIMIT = 32 * 1024 * 1024;
 	private static final int FLASH_MILLIS = 125;
 	private static final int COPY_ID = IDialogConstants.CLIENT_ID + 1;
+	private static final int COPY_SELECTION_ID = IDialogConstants.CLIENT_ID + 2;
+	private static final int EXPORT_ID = IDialogConstants.CLIENT_ID + 3;
+	private static final int ASYNC_COPY_CHARS = 1024 * 1024;
+	private static final int FLUSH_MILLIS = 25;
+	private static final int REFLOW_WIDTH = 200;
+	private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+	/** Lines longer than this are shown truncated. */
+	public static final int LONG_LINE_LIMIT = 10000;
+	/** The default number of lines kept by {@link #append(String)}. */
+	public static final int DEFAULT_SCROLLBACK = 10000;
 	private String title;
 	private String message;
+	private Path path;
+	private MappedFileContent content;
 	private StyledText text;
-	private boolean busy;
-	private Display display;
+	private Clipboard clipboard;
+	private FindBar findBar;
+	private Composite longLineBar;
+	private Label lblLongLines;
+	// lines shown truncated in the text widget, when no file is shown
+	private int truncatedLineCount;
+	// the full text of the truncated lines, by line number counted from the
+	// first line ever shown, for Copy All and Export
+	private final SortedMap<Integer, StringBuilder> originals = new TreeMap<Integer, StringBuilder>();
+	// lines dropped from the top of the text widget by the scrollback
+	private int trimmedLines;
+	private ContentType contentType;
+	private SyntaxHighlighter highlighter;
+	private Runnable flashEnd;
+	private Color flashBackground;
+	private boolean closePending;
+	private volatile Display display;
+	private final Object pendingLock = new Object();
+	private final StringBuilder pending = new StringBuilder();
+	private int pendingLines;
+	private final AtomicBoolean flushScheduled = new AtomicBoolean(false);
+	private volatile int scrollback;
+	private volatile boolean autoScroll;
+	private boolean streaming;
 	private boolean flash;
 	private boolean wrap;
 
@@ -61,7 +163,11 @@ public class CopyableDialog extends Dialog {
 		this.message = message;
 		this.flash = flash;
 		this.wrap = wrap;
-		this.busy = false;
+		this.closePending = false;
+		this.contentType = ContentType.PLAIN;
+		this.scrollback = DEFAULT_SCROLLBACK;
+		this.autoScroll = true;
+		this.streaming = false;
 	}
 
 	/**
@@ -74,48 +180,385 @@ public class CopyableDialog extends Dialog {
 		this(parentShell, title, null, true, false);
 	}
 
+	/**
+	 * Append text to the body of the dialog. May be called from any thread,
+	 * before or after open(), at high rates: the text is buffered and flushed
+	 * to the text widget in batches. When more lines are pending than the
+	 * scrollback can hold, the oldest are dropped before they reach the
+	 * widget. Not supported when a file is shown with {@link #setPath(Path)}.
+	 *
+	 * @param more the text to append, usually ending with a line feed
+	 */
+	public void append(String more) {
+		synchronized (pendingLock) {
+			pending.append(more);
+			pendingLines += countLines(more, 0, more.length());
+			int limit = scrollback;
+			if (limit > 0 && pendingLines > 2 * limit) {
+				dropPendingLines(pendingLines - limit);
+			}
+		}
+		scheduleFlush();
+	}
+
+	/**
+	 * @return the number of line feeds in the range
+	 */
+	private static int countLines(CharSequence s, int start, int end) {
+		int lines = 0;
+		for (int i = start; i < end; i++) {
+			if (s.charAt(i) == '\n') {
+				lines++;
+			}
+		}
+		return lines;
+	}
+
+	/**
+	 * Remove the oldest lines from the pending text. Called with the pending
+	 * lock held.
+	 *
+	 * @param count the number of lines to drop
+	 */
+	private void dropPendingLines(int count) {
+		int end = 0;
+		for (int dropped = 0; dropped < count; end++) {
+			if (pending.charAt(end) == '\n') {
+				dropped++;
+			}
+		}
+		pending.delete(0, end);
+		pendingLines -= count;
+	}
+
+	/**
+	 * Make sure one flush is scheduled on the display thread. At most one
+	 * asyncExec is outstanding, however often this is called.
+	 */
+	private void scheduleFlush() {
+		final Display d = display;
+		if (d == null || d.isDisposed() || !flushScheduled.compareAndSet(false, true)) {
+			return;
+		}
+		d.asyncExec(new Runnable() {
+			public void run() {
+				if (!d.isDisposed()) {
+					d.timerExec(FLUSH_MILLIS, flusher);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Move the pending text to the text widget, trim the scrollback, and
+	 * scroll to the end if enabled.
+	 */
+	private final Runnable flusher = new Runnable() {
+		public void run() {
+			flushScheduled.set(false);
+			flush();
+		}
+	};
+
+	/**
+	 * Move the pending text to the text widget, truncating long lines as
+	 * {@link #setMessageText(String)} does. A line may be split across
+	 * batches, so the unfinished last line of the widget is carried into the
+	 * check of the next batch. Called on the display thread.
+	 */
+	private void flush() {
+		if (text == null || text.isDisposed() || content != null) {
+			return;
+		}
+		String batch;
+		synchronized (pendingLock) {
+			if (pending.length() == 0) {
+				return;
+			}
+			batch = pending.toString();
+			pending.setLength(0);
+			pendingLines = 0;
+		}
+		streaming = true;
+		int lastLine = text.getLineCount() - 1;
+		int[] truncatedLines = new int[1];
+		batch = truncateLongLines(batch, text.getLine(lastLine), trimmedLines + lastLine, originals, truncatedLines);
+		text.setRedraw(false);
+		try {
+			text.append(batch);
+			int excess = text.getLineCount() - 1 - scrollback;
+			if (scrollback > 0 && excess > 0) {
+				text.replaceTextRange(0, text.getOffsetAtLine(excess), ""); //$NON-NLS-1$
+				trimmedLines += excess;
+				originals.headMap(Integer.valueOf(trimmedLines)).clear();
+			}
+			if (autoScroll) {
+				text.setTopIndex(text.getLineCount() - 1);
+			}
+		} finally {
+			text.setRedraw(true);
+		}
+		if (truncatedLines[0] > 0) {
+			truncatedLineCount += truncatedLines[0];
+			showLongLineBar(truncatedLineCount);
+		}
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.jface.dialogs.Dialog#buttonPressed(int)
 	 */
 	@Override
 	protected void buttonPressed(int buttonId) {
 		if (buttonId == COPY_ID) {
-			if (flash) {
-				busy = true;
-    			final Color background = text.getBackground();
-    			text.setBackground(Display.getDefault().getSystemColor(SWT.COLOR_RED));
-    			display.timerExec(FLASH_MILLIS, new Runnable() {
-    				@Override
-    				public void run() {
-    					text.setBackground(background);
-    					busy = false;
-    				}
-    			});
-			}
-			final Clipboard cb = new Clipboard(Display.getDefault().getActiveShell().getDisplay());
-			final TextTransfer textTransfer = TextTransfer.getInstance();
-			final Object[] data = new Object[] { message };
-			final Transfer[] dataTypes = new Transfer[] { textTransfer };
-			cb.setContents(data, dataTypes);
+			copy(false);
+		} else if (buttonId == COPY_SELECTION_ID) {
+			copy(true);
+		} else if (buttonId == EXPORT_ID) {
+			export();
 		}
 		super.buttonPressed(buttonId);
 	}
 
-	/* (non-Javadoc)
+	/**
+	 * Copy the text, or the selected part of it, to the clipboard. Large
+	 * ranges of a mapped file are read in a background job with progress,
+	 * and placed on the clipboard when the job is done. Text over
+	 * {@link #COPY_LIMIT} characters is not copied, and the user is told so.
+	 *
+	 * @param selectionOnly true to copy only the selected text
+	 */
+	protected void copy(final boolean selectionOnly) {
+		final long started = Perf.DIALOG_COPY.start();
+		final String all = (!selectionOnly && content == null) ? getFullText() : null;
+		final int start;
+		final int length;
+		if (selectionOnly) {
+			Point range = text.getSelectionRange();
+			start = range.x;
+			length = range.y;
+		} else if (content != null) {
+			// the original file, not the truncated or reformatted view
+			start = 0;
+			length = getFileLength();
+		} else {
+			start = 0;
+			length = all.length();
+		}
+		if (length == 0) {
+			return;
+		}
+		if (length > COPY_LIMIT) {
+			MessageDialog.openInformation(getShell(), title,
+					NLS.bind(Messages.CopyableDialog_infoCopyTooLarge, Integer.valueOf(length), Integer.valueOf(COPY_LIMIT)));
+			return;
+		}
+		if (content == null) {
+			setClipboard((all != null) ? all : text.getTextRange(start, length), started);
+			return;
+		}
+		final MappedFileContent source = content;
+		final Path file = path;
+		Job job = new Job(Messages.CopyableDialog_jobCopy) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				final String data;
+				if (selectionOnly) {
+					monitor.beginTask(getName(), length / ASYNC_COPY_CHARS + 1);
+					StringBuilder sb = new StringBuilder(length);
+					for (int offset = start; offset < start + length; offset += ASYNC_COPY_CHARS) {
+						if (monitor.isCanceled()) {
+							return Status.CANCEL_STATUS;
+						}
+						sb.append(source.getTextRange(offset, Math.min(ASYNC_COPY_CHARS, start + length - offset)));
+						monitor.worked(1);
+					}
+					data = sb.toString();
+				} else {
+					monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+					try {
+						data = new String(Files.readAllBytes(file), UTF8);
+					} catch (IOException e) {
+						return new Status(IStatus.ERROR, Activator.PLUGIN_ID, e.getMessage(), e);
+					}
+				}
+				monitor.done();
+				if (!display.isDisposed()) {
+					display.asyncExec(new Runnable() {
+						public void run() {
+							setClipboard(data, started);
+						}
+					});
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setUser(length > ASYNC_COPY_CHARS);
+		job.schedule();
+	}
+
+	/**
+	 * @return the size of the shown file in bytes, which is no less than its
+	 *         size in characters, or Integer.MAX_VALUE if it cannot be read
+	 */
+	private int getFileLength() {
+		try {
+			return (int) Math.min(Integer.MAX_VALUE, Files.size(path));
+		} catch (IOException e) {
+			return Integer.MAX_VALUE;
+		}
+	}
+
+	/**
+	 * @return true if the text widget shows the message, and nothing else
+	 */
+	private boolean isMessageShown() {
+		return content == null && message != null && !streaming;
+	}
+
+	/**
+	 * @return the text shown when no file is shown, with the lines shown
+	 *         truncated in full
+	 */
+	private String getFullText() {
+		if (isMessageShown()) {
+			return message;
+		}
+		String shown = text.getText();
+		if (originals.isEmpty()) {
+			return shown;
+		}
+		StringBuilder sb = new StringBuilder(shown.length());
+		int copied = 0;
+		for (Map.Entry<Integer, StringBuilder> entry : originals.entrySet()) {
+			int line = entry.getKey().intValue() - trimmedLines;
+			if (line >= text.getLineCount()) {
+				break;
+			}
+			int offset = text.getOffsetAtLine(line);
+			sb.append(shown, copied, offset).append(entry.getValue());
+			copied = offset + text.getLine(line).length();
+		}
+		return sb.append(shown, copied, shown.length()).toString();
+	}
+
+	/**
+	 * Place the text on the clipboard, flashing the text widget if enabled.
+	 * The clipboard is created on first use, and disposed with the dialog.
+	 *
+	 * @param data the text to copy
+	 * @param started the start of the copy, from {@link Perf#DIALOG_COPY}
+	 */
+	private void setClipboard(String data, long started) {
+		if (display == null || display.isDisposed()) {
+			return;
+		}
+		if (text != null && !text.isDisposed() && flash) {
+			startFlash();
+		}
+		if (clipboard == null) {
+			clipboard = new Clipboard(display);
+		}
+		clipboard.setContents(new Object[] { data }, new Transfer[] { TextTransfer.getInstance() });
+		Perf.DIALOG_COPY.stop(started);
+		Perf.DIALOG_CHARS_COPIED.add(data.length());
+	}
+
+	/**
+	 * Ask for a file and stream the text to it in a background job. Names
+	 * ending with .gz are compressed.
+	 */
+	protected void export() {
+		FileDialog dialog = new FileDialog(getShell(), SWT.SAVE);
+		dialog.setFilterExtensions(new String[] { "*.txt", "*.gz", "*.*" }); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+		dialog.setOverwrite(true);
+		if (content != null) {
+			dialog.setFileName(path.getFileName().toString());
+		}
+		String name = dialog.open();
+		if (name == null) {
+			return;
+		}
+		Path target = Paths.get(name);
+		if (content != null) {
+			new ExportJob(path, target).schedule();
+		} else {
+			new ExportJob(getFullText(), target).schedule();
+		}
+	}
+
+	/**
+	 * Turn the text widget background red for {@link #FLASH_MILLIS}. A flash
+	 * that is already showing is extended instead of started again.
+	 */
+	private void startFlash() {
+		if (flashEnd == null) {
+			flashBackground = text.getBackground();
+			text.setBackground(display.getSystemColor(SWT.COLOR_RED));
+			flashEnd = new Runnable() {
+				@Override
+				public void run() {
+					flashEnd = null;
+					endFlash();
+					if (closePending) {
+						closePending = false;
+						close();
+					}
+				}
+			};
+		}
+		display.timerExec(FLASH_MILLIS, flashEnd);
+	}
+
+	/**
+	 * Cancel the flash timer, if it is running, and restore the background.
+	 */
+	private void endFlash() {
+		if (flashEnd != null) {
+			display.timerExec(-1, flashEnd);
+			flashEnd = null;
+		}
+		if (flashBackground != null && text != null && !text.isDisposed()) {
+			text.setBackground(flashBackground);
+		}
+		flashBackground = null;
+	}
+
+	/**
+	 * Close the dialog without blocking. While the copy flash is showing,
+	 * the close is deferred until the flash ends, and false is returned.
+	 * When called from another thread, the close is posted to the display
+	 * thread, and false is returned.
+	 *
 	 * @see org.eclipse.jface.dialogs.Dialog#close()
 	 */
 	@Override
 	public boolean close() {
-		while (busy) {
-			display.syncExec(new Runnable() {
+		final Display d = display;
+		if (d != null && !d.isDisposed() && d.getThread() != Thread.currentThread()) {
+			d.asyncExec(new Runnable() {
 				public void run() {
-					// nothing to do here, just waiting...
+					close();
 				}
 			});
+			return false;
+		}
+		if (flashEnd != null) {
+			closePending = true;
+			return false;
 		}
 		return super.close();
 	}
 
+	/* (non-Javadoc)
+	 * @see org.eclipse.jface.window.Window#create()
+	 */
+	@Override
+	public void create() {
+		long start = Perf.DIALOG_CREATE.start();
+		super.create();
+		Perf.DIALOG_CREATE.stop(start);
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.jface.window.Window#configureShell(org.eclipse.swt.widgets.Shell)
 	 */
@@ -132,6 +575,15 @@ public class CopyableDialog extends Dialog {
 	 */
 	@Override
 	protected void createButtonsForButtonBar(Composite parent) {
+		createButton(parent, EXPORT_ID, Messages.CopyableDialog_labelExport, false);
+		final Button btnCopy = createButton(parent, COPY_SELECTION_ID, Messages.CopyableDialog_labelCopy, false);
+		btnCopy.setEnabled(false);
+		text.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				btnCopy.setEnabled(text.getSelectionCount() > 0);
+			}
+		});
 		createButton(parent, COPY_ID, Messages.CopyableDialog_labelCopyAll, false);
 		createButton(parent, IDialogConstants.OK_ID, IDialogConstants.OK_LABEL,
 				true);
@@ -150,15 +602,329 @@ public class CopyableDialog extends Dialog {
 		}
 		text = new StyledText(container, style);
 		text.setAlwaysShowScrollBars(false);
+		text.addDisposeListener(new DisposeListener() {
+			public void widgetDisposed(DisposeEvent e) {
+				// the shell went away during a flash
+				endFlash();
+				closePending = false;
+				if (clipboard != null) {
+					clipboard.dispose();
+					clipboard = null;
+				}
+			}
+		});
 		GridData gd_text = new GridData(SWT.FILL, SWT.FILL, true, true, 1, 1);
 		gd_text.widthHint = 440;
 		text.setLayoutData(gd_text);
-		if (message != null) {
-			text.setText(message);
+		createLongLineBar(container);
+		if (path != null) {
+			try {
+				setContent(new MappedFileContent(path, LONG_LINE_LIMIT));
+				text.addDisposeListener(new DisposeListener() {
+					public void widgetDisposed(DisposeEvent e) {
+						disposeContent(content);
+					}
+				});
+			} catch (IOException e) {
+				text.setText(String.valueOf(e.getMessage()));
+			}
+		} else {
+			if (message != null) {
+				setMessageText(message);
+			}
+			// text appended before the dialog was opened
+			flush();
 		}
+		// highlighting goes first, so the find bar can lay matches over it
+		highlighter = new SyntaxHighlighter(display, contentType);
+		text.addLineStyleListener(highlighter);
+		findBar = new FindBar(container, text);
+		findBar.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1));
+		findBar.moveAbove(text);
+		text.addKeyListener(new KeyAdapter() {
+			@Override
+			public void keyPressed(KeyEvent e) {
+				if (e.stateMask == SWT.MOD1 && e.keyCode == 'f') {
+					findBar.setFocus();
+				}
+			}
+		});
 		return container;
 	}
 
+	/**
+	 * Create the bar offering to reformat text with very long lines. The
+	 * bar stays hidden until such lines are found.
+	 *
+	 * @param parent the dialog area
+	 */
+	private void createLongLineBar(Composite parent) {
+		longLineBar = new Composite(parent, SWT.NONE);
+		GridData gdBar = new GridData(SWT.FILL, SWT.CENTER, true, false, 1, 1);
+		gdBar.exclude = true;
+		longLineBar.setLayoutData(gdBar);
+		longLineBar.setVisible(false);
+		GridLayout layout = new GridLayout(3, false);
+		layout.marginWidth = 0;
+		layout.marginHeight = 0;
+		longLineBar.setLayout(layout);
+		lblLongLines = new Label(longLineBar, SWT.WRAP);
+		lblLongLines.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		Button btnPretty = new Button(longLineBar, SWT.PUSH);
+		btnPretty.setText(Messages.CopyableDialog_labelPrettyPrint);
+		btnPretty.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				reformat(true);
+			}
+		});
+		Button btnReflow = new Button(longLineBar, SWT.PUSH);
+		btnReflow.setText(Messages.CopyableDialog_labelReflow);
+		btnReflow.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				reformat(false);
+			}
+		});
+		longLineBar.moveAbove(text);
+	}
+
+	/**
+	 * Show or hide the long line bar.
+	 *
+	 * @param truncatedLines the number of lines shown truncated
+	 */
+	private void showLongLineBar(int truncatedLines) {
+		if (longLineBar == null || longLineBar.isDisposed()) {
+			return;
+		}
+		boolean show = truncatedLines > 0;
+		if (show) {
+			lblLongLines.setText(NLS.bind(Messages.CopyableDialog_infoLongLines,
+					Integer.valueOf(truncatedLines), Integer.valueOf(LONG_LINE_LIMIT)));
+		}
+		if (longLineBar.getVisible() != show) {
+			((GridData) longLineBar.getLayoutData()).exclude = !show;
+			longLineBar.setVisible(show);
+			longLineBar.getParent().layout(new Control[] { longLineBar });
+		}
+	}
+
+	/**
+	 * Show a mapped file, replacing the current content, and let the find
+	 * bar and the long line bar follow it.
+	 *
+	 * @param mapped the new content
+	 */
+	private void setContent(final MappedFileContent mapped) {
+		MappedFileContent previous = content;
+		content = mapped;
+		text.setContent(mapped);
+		mapped.addTextChangeListener(new TextChangeListener() {
+			public void textChanging(TextChangingEvent event) {
+				// the content is read-only
+			}
+
+			public void textChanged(TextChangedEvent event) {
+				// the content is read-only
+			}
+
+			public void textSet(TextChangedEvent event) {
+				showLongLineBar(mapped.getTruncatedLineCount());
+			}
+		});
+		mapped.startIndexing(display);
+		if (findBar != null) {
+			findBar.contentChanged();
+		}
+		if (previous != null) {
+			disposeContent(previous);
+		}
+	}
+
+	/**
+	 * Dispose a content that is no longer shown. A reformatted copy of the
+	 * file is deleted with it; if the file is still mapped, as on Windows
+	 * until the mapping is collected, it is deleted on exit instead.
+	 *
+	 * @param old the content
+	 */
+	private void disposeContent(MappedFileContent old) {
+		old.dispose();
+		Path file = old.getPath();
+		if (!file.equals(path)) {
+			try {
+				Files.deleteIfExists(file);
+			} catch (IOException e) {
+				file.toFile().deleteOnExit();
+			}
+		}
+	}
+
+	/**
+	 * Show a message, truncating lines that are too long to show.
+	 *
+	 * @param shown the text to show
+	 */
+	private void setMessageText(String shown) {
+		int[] truncatedLines = new int[1];
+		originals.clear();
+		trimmedLines = 0;
+		text.setText(truncateLongLines(shown, "", 0, originals, truncatedLines)); //$NON-NLS-1$
+		truncatedLineCount = truncatedLines[0];
+		showLongLineBar(truncatedLineCount);
+	}
+
+	/**
+	 * Cut every line longer than {@link #LONG_LINE_LIMIT} down to that
+	 * length, followed by {@link MappedFileContent#TRUNCATION_MARK}.
+	 *
+	 * The full text of every line cut is kept, and grows as the rest of the
+	 * line arrives.
+	 *
+	 * @param s the text
+	 * @param open the line the text continues, already shown; if it is over
+	 *            the limit the line was cut already, and the rest of it is
+	 *            dropped
+	 * @param firstLine the number of the line the text continues
+	 * @param originals receives the full text of the lines cut, by number
+	 * @param truncatedLines receives the number of lines cut
+	 * @return the text, or a truncated copy of it
+	 */
+	private static String truncateLongLines(String s, String open, int firstLine,
+			Map<Integer, StringBuilder> originals, int[] truncatedLines) {
+		StringBuilder sb = null;
+		int lineStart = 0;
+		int line = firstLine;
+		int shown = open.length();
+		int copied = 0;
+		int n = s.length();
+		for (int i = 0; i <= n; i++) {
+			if (i < n && s.charAt(i) != '\n') {
+				continue;
+			}
+			int end = (i > lineStart && s.charAt(i - 1) == '\r') ? i - 1 : i;
+			if (shown + end - lineStart > LONG_LINE_LIMIT) {
+				if (sb == null) {
+					sb = new StringBuilder(n);
+				}
+				sb.append(s, copied, Math.max(lineStart, lineStart + LONG_LINE_LIMIT - shown));
+				if (shown <= LONG_LINE_LIMIT) {
+					sb.append(MappedFileContent.TRUNCATION_MARK);
+					truncatedLines[0]++;
+					String before = (line == firstLine) ? open : ""; //$NON-NLS-1$
+					originals.put(Integer.valueOf(line), new StringBuilder(before).append(s, lineStart, end));
+				} else {
+					StringBuilder original = originals.get(Integer.valueOf(line));
+					if (original != null) {
+						original.append(s, lineStart, end);
+					}
+				}
+				copied = end;
+			}
+			lineStart = i + 1;
+			line++;
+			shown = 0;
+		}
+		if (sb == null) {
+			return s;
+		}
+		return sb.append(s, copied, n).toString();
+	}
+
+	/**
+	 * Pretty-print or reflow the text in a background job, and show the
+	 * result when it is done. Copy All and Export keep using the original.
+	 *
+	 * @param pretty true to pretty-print JSON or XML, false to reflow
+	 */
+	private void reformat(final boolean pretty) {
+		final Path source = (content != null) ? path : null;
+		final String original = (content == null) ? getFullText() : null;
+		Job job = new Job(Messages.CopyableDialog_jobFormat) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				monitor.beginTask(getName(), IProgressMonitor.UNKNOWN);
+				try {
+					if (source != null) {
+						final Path formatted = Files.createTempFile("crabrace", ".txt"); //$NON-NLS-1$ //$NON-NLS-2$
+						MappedFileContent opened = null;
+						try {
+							try (Reader in = Files.newBufferedReader(source, UTF8);
+									Writer out = Files.newBufferedWriter(formatted, UTF8)) {
+								format(in, out, pretty, monitor);
+							}
+							opened = new MappedFileContent(formatted, LONG_LINE_LIMIT);
+						} finally {
+							if (opened == null) {
+								// failed or cancelled
+								Files.deleteIfExists(formatted);
+							}
+						}
+						final MappedFileContent mapped = opened;
+						showFormatted(new Runnable() {
+							public void run() {
+								setContent(mapped);
+							}
+						}, mapped);
+					} else {
+						StringWriter out = new StringWriter(original.length() + original.length() / 4);
+						format(new BufferedReader(new StringReader(original)), out, pretty, monitor);
+						final String formatted = out.toString();
+						showFormatted(new Runnable() {
+							public void run() {
+								setMessageText(formatted);
+							}
+						}, null);
+					}
+				} catch (OperationCanceledException e) {
+					return Status.CANCEL_STATUS;
+				} catch (IOException e) {
+					return new Status(IStatus.ERROR, Activator.PLUGIN_ID, Messages.CopyableDialog_errorFormat, e);
+				} finally {
+					monitor.done();
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.setUser(true);
+		job.schedule();
+	}
+
+	private static void format(Reader in, Writer out, boolean pretty, IProgressMonitor monitor) throws IOException {
+		if (pretty) {
+			Reformatter.prettyPrint(in, out, REFLOW_WIDTH, monitor);
+		} else {
+			Reformatter.reflow(in, out, REFLOW_WIDTH, monitor);
+		}
+	}
+
+	/**
+	 * Run an update of the text widget on the display thread, if the
+	 * dialog is still open.
+	 *
+	 * @param update the update
+	 * @param formatted the content shown by the update, disposed if the
+	 *            dialog is closed first, or null
+	 */
+	private void showFormatted(final Runnable update, final MappedFileContent formatted) {
+		if (display.isDisposed()) {
+			if (formatted != null) {
+				disposeContent(formatted);
+			}
+			return;
+		}
+		display.asyncExec(new Runnable() {
+			public void run() {
+				if (text != null && !text.isDisposed()) {
+					update.run();
+				} else if (formatted != null) {
+					disposeContent(formatted);
+				}
+			}
+		});
+	}
+
 	/* (non-Javadoc)
 	 * @see org.eclipse.jface.dialogs.Dialog#isResizable()
 	 */
@@ -167,6 +933,24 @@ public class CopyableDialog extends Dialog {
 		return true;
 	}
 
+	/**
+	 * @param autoScroll true to scroll to the end whenever appended text is flushed
+	 */
+	public void setAutoScroll(boolean autoScroll) {
+		this.autoScroll = autoScroll;
+	}
+
+	/**
+	 * @param contentType the kind of text, which selects the highlighting
+	 */
+	public void setContentType(ContentType contentType) {
+		this.contentType = (contentType != null) ? contentType : ContentType.PLAIN;
+		if (highlighter != null && !text.isDisposed()) {
+			highlighter.setContentType(this.contentType);
+			text.redraw();
+		}
+	}
+
 	/**
 	 * @param flash controls the flashing red of the text widget background when the text is copied
 	 */
@@ -181,6 +965,22 @@ public class CopyableDialog extends Dialog {
 		this.message = message;
 	}
 
+	/**
+	 * Show a UTF-8 file instead of the message. Must be called before open().
+	 *
+	 * @param path the file to show in the body of the text widget
+	 */
+	public void setPath(Path path) {
+		this.path = path;
+	}
+
+	/**
+	 * @param scrollback the number of lines kept when text is appended, or 0 for no limit
+	 */
+	public void setScrollback(int scrollback) {
+		this.scrollback = Math.max(0, scrollback);
+	}
+
 	/**
 	 * @param title the title of the window
 	 */
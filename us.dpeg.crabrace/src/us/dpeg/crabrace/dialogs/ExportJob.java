@@ -0,0 +1,179 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Background job that streams the text of a CopyableDialog to a file.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.dialogs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Locale;
+import java.util.zip.GZIPOutputStream;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+
+import us.dpeg.crabrace.Activator;
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Writes text to a file without building any copy of it in memory. A source
+ * file is copied with {@link FileChannel#transferTo(long, long, java.nio.channels.WritableByteChannel)},
+ * or streamed through a buffer when compressing; a string is written in
+ * chunks. The output is gzip compressed when the target name ends with
+ * {@code .gz}. A cancelled or failed export deletes the partial target.
+ *
+ * @author dpurnhagen
+ */
+class ExportJob extends Job {
+	private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private static final String GZIP_SUFFIX = ".gz"; //$NON-NLS-1$
+	private static final int CHUNK = 64 * 1024;
+
+	private final Path source;
+	private final String text;
+	private final Path target;
+
+	/**
+	 * Export a file.
+	 *
+	 * @param source the UTF-8 file to export
+	 * @param target the file to write
+	 */
+	ExportJob(Path source, Path target) {
+		this(source, null, target);
+	}
+
+	/**
+	 * Export a string.
+	 *
+	 * @param text the text to export
+	 * @param target the file to write
+	 */
+	ExportJob(String text, Path target) {
+		this(null, text, target);
+	}
+
+	private ExportJob(Path source, String text, Path target) {
+		super(NLS.bind(Messages.CopyableDialog_jobExport, target.getFileName()));
+		this.source = source;
+		this.text = text;
+		this.target = target;
+		setUser(true);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.jobs.Job#run(org.eclipse.core.runtime.IProgressMonitor)
+	 */
+	@Override
+	protected IStatus run(IProgressMonitor monitor) {
+		boolean gzip = target.getFileName().toString().toLowerCase(Locale.ENGLISH).endsWith(GZIP_SUFFIX);
+		boolean complete = false;
+		try {
+			if (source != null && !gzip) {
+				complete = transferFile(monitor);
+			} else if (source != null) {
+				try (OutputStream out = new GZIPOutputStream(Files.newOutputStream(target), CHUNK)) {
+					complete = streamFile(out, monitor);
+				}
+			} else {
+				try (OutputStream out = openTarget(gzip)) {
+					complete = writeText(out, monitor);
+				}
+			}
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+					NLS.bind(Messages.CopyableDialog_errorExport, target), e);
+		} finally {
+			monitor.done();
+			if (!complete) {
+				try {
+					Files.deleteIfExists(target);
+				} catch (IOException e) {
+					// leave the partial file behind
+				}
+			}
+		}
+		return complete ? Status.OK_STATUS : Status.CANCEL_STATUS;
+	}
+
+	private OutputStream openTarget(boolean gzip) throws IOException {
+		OutputStream out = Files.newOutputStream(target);
+		return gzip ? new GZIPOutputStream(out, CHUNK) : out;
+	}
+
+	/**
+	 * Copy the source file to the target channel to channel.
+	 */
+	private boolean transferFile(IProgressMonitor monitor) throws IOException {
+		try (FileChannel in = FileChannel.open(source, StandardOpenOption.READ);
+				FileChannel out = FileChannel.open(target, StandardOpenOption.CREATE,
+						StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+			long size = in.size();
+			long step = 64L * CHUNK;
+			monitor.beginTask(getName(), (int) (size / step) + 1);
+			for (long position = 0; position < size; ) {
+				if (monitor.isCanceled()) {
+					return false;
+				}
+				position += in.transferTo(position, Math.min(step, size - position), out);
+				monitor.worked(1);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Stream the source file through a buffer into the compressed target.
+	 */
+	private boolean streamFile(OutputStream out, IProgressMonitor monitor) throws IOException {
+		byte[] buffer = new byte[CHUNK];
+		try (InputStream in = Files.newInputStream(source)) {
+			monitor.beginTask(getName(), (int) (Files.size(source) / CHUNK) + 1);
+			int read;
+			while ((read = in.read(buffer)) > 0) {
+				if (monitor.isCanceled()) {
+					return false;
+				}
+				out.write(buffer, 0, read);
+				monitor.worked(1);
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Encode the text into the target in chunks.
+	 */
+	private boolean writeText(OutputStream out, IProgressMonitor monitor) throws IOException {
+		Writer writer = new OutputStreamWriter(out, UTF8);
+		monitor.beginTask(getName(), text.length() / CHUNK + 1);
+		for (int start = 0; start < text.length(); start += CHUNK) {
+			if (monitor.isCanceled()) {
+				return false;
+			}
+			writer.write(text, start, Math.min(CHUNK, text.length() - start));
+			monitor.worked(1);
+		}
+		writer.flush();
+		return true;
+	}
+}
@@ -0,0 +1,457 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Incremental find bar for the text widget of a CopyableDialog.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.dialogs;
+
+import java.util.Arrays;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.regex.PatternSyntaxException;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.LineStyleEvent;
+import org.eclipse.swt.custom.LineStyleListener;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.custom.StyledText;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.custom.TextChangingEvent;
+import org.eclipse.swt.events.DisposeEvent;
+import org.eclipse.swt.events.DisposeListener;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Text;
+
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Find bar for a {@link StyledText}. The search runs in a background job
+ * over a snapshot of the text, or line by line over a
+ * {@link MappedFileContent}, and produces sorted arrays of match offsets.
+ * Matches are highlighted by a {@link LineStyleListener}, which looks up the
+ * matches of each line as it is drawn, so only visible lines are ever
+ * styled. The search is restarted shortly after the pattern or the text
+ * changes. When text is only appended, as while output is streamed in, the
+ * earlier matches are kept and only the appended range is searched, from
+ * the start of its first line; the current match and the selection stay
+ * where they are.
+ *
+ * @author dpurnhagen
+ */
+class FindBar extends Composite {
+	private static final int SEARCH_DELAY = 150;
+	private static final int MAX_MATCHES = 1000000;
+
+	private final StyledText text;
+	private final Text txtFind;
+	private final Button btnRegex;
+	private final Button btnCase;
+	private final Label lblCount;
+	private final Color matchColor;
+	private final Color currentColor;
+	private StyledTextContent content;
+	private Job job;
+	private boolean searchPending;
+	private int[] starts;
+	private int[] lengths;
+	private int count;
+	private boolean truncated;
+	private int current;
+	// true once the pattern or its options changed since the last search
+	private boolean patternChanged = true;
+	// true once the text changed other than by appending
+	private boolean rescan;
+	// the length of the text the results were found in
+	private int searchedTo;
+	// what the running job was started for, restored if it is cancelled
+	private boolean jobFresh;
+	private boolean jobFull;
+
+	private final Runnable startSearch = new Runnable() {
+		public void run() {
+			searchPending = false;
+			if (!isDisposed()) {
+				search();
+			}
+		}
+	};
+
+	private final TextChangeListener contentListener = new TextChangeListener() {
+		public void textChanging(TextChangingEvent event) {
+			// an append keeps the earlier matches, anything else moves them
+			if (event.replaceCharCount != 0 || event.start != content.getCharCount()) {
+				rescan = true;
+			}
+		}
+
+		public void textChanged(TextChangedEvent event) {
+			scheduleSearch(false);
+		}
+
+		public void textSet(TextChangedEvent event) {
+			rescan = true;
+			scheduleSearch(false);
+		}
+	};
+
+	/**
+	 * @param parent the parent container
+	 * @param text the text widget to search
+	 */
+	FindBar(Composite parent, StyledText text) {
+		super(parent, SWT.NONE);
+		this.text = text;
+		this.starts = new int[0];
+		this.lengths = new int[0];
+		this.current = -1;
+		this.matchColor = getDisplay().getSystemColor(SWT.COLOR_YELLOW);
+		this.currentColor = getDisplay().getSystemColor(SWT.COLOR_CYAN);
+
+		GridLayout layout = new GridLayout(7, false);
+		layout.marginWidth = 0;
+		layout.marginHeight = 0;
+		setLayout(layout);
+
+		Label lblFind = new Label(this, SWT.NONE);
+		lblFind.setText(Messages.CopyableDialog_labelFind);
+
+		txtFind = new Text(this, SWT.SEARCH | SWT.ICON_CANCEL | SWT.BORDER);
+		txtFind.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		txtFind.addModifyListener(new ModifyListener() {
+			public void modifyText(ModifyEvent e) {
+				scheduleSearch(true);
+			}
+		});
+		txtFind.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetDefaultSelected(SelectionEvent e) {
+				// Enter moves to the next match
+				next(true);
+			}
+		});
+
+		SelectionAdapter optionChanged = new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				scheduleSearch(true);
+			}
+		};
+		btnRegex = new Button(this, SWT.CHECK);
+		btnRegex.setText(Messages.CopyableDialog_labelRegex);
+		btnRegex.addSelectionListener(optionChanged);
+		btnCase = new Button(this, SWT.CHECK);
+		btnCase.setText(Messages.CopyableDialog_labelMatchCase);
+		btnCase.addSelectionListener(optionChanged);
+
+		Button btnPrevious = new Button(this, SWT.PUSH);
+		btnPrevious.setText(Messages.CopyableDialog_labelPrevious);
+		btnPrevious.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				next(false);
+			}
+		});
+		Button btnNext = new Button(this, SWT.PUSH);
+		btnNext.setText(Messages.CopyableDialog_labelNext);
+		btnNext.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				next(true);
+			}
+		});
+
+		lblCount = new Label(this, SWT.NONE);
+		GridData gdCount = new GridData(SWT.FILL, SWT.CENTER, false, false);
+		gdCount.widthHint = 120;
+		lblCount.setLayoutData(gdCount);
+
+		text.addLineStyleListener(new LineStyleListener() {
+			public void lineGetStyle(LineStyleEvent event) {
+				styleLine(event);
+			}
+		});
+		content = text.getContent();
+		content.addTextChangeListener(contentListener);
+		addDisposeListener(new DisposeListener() {
+			public void widgetDisposed(DisposeEvent e) {
+				content.removeTextChangeListener(contentListener);
+				if (job != null) {
+					job.cancel();
+				}
+			}
+		});
+	}
+
+	/**
+	 * Start the search after a short delay. Typing restarts the delay, so
+	 * the search runs once the user pauses; text changes only start a search
+	 * if none is waiting already, so streamed text does not starve it.
+	 *
+	 * @param restart true to restart the delay of a waiting search, when the
+	 *            pattern changed
+	 */
+	private void scheduleSearch(boolean restart) {
+		if (restart) {
+			patternChanged = true;
+		}
+		if (searchPending && !restart) {
+			return;
+		}
+		searchPending = true;
+		getDisplay().timerExec(SEARCH_DELAY, startSearch);
+	}
+
+	/**
+	 * Take a snapshot of the text on the display thread and search it in a
+	 * background job. After an append only the appended range is copied and
+	 * searched.
+	 */
+	private void search() {
+		if (job != null) {
+			// the results of a cancelled job never arrive, so the search
+			// that replaces it must do what it would have done
+			job.cancel();
+			job = null;
+			patternChanged |= jobFresh;
+			rescan |= jobFull;
+		}
+		final boolean fresh = patternChanged;
+		final boolean full = fresh || rescan;
+		patternChanged = false;
+		rescan = false;
+		String find = txtFind.getText();
+		if (find.length() == 0) {
+			if (count > 0) {
+				setResults(new int[0], new int[0], 0, false, false);
+			}
+			searchedTo = 0;
+			lblCount.setText(""); //$NON-NLS-1$
+			return;
+		}
+		final Pattern pattern;
+		try {
+			int flags = btnCase.getSelection() ? 0 : Pattern.CASE_INSENSITIVE | Pattern.UNICODE_CASE;
+			pattern = btnRegex.getSelection() ? Pattern.compile(find, flags) : Pattern.compile(Pattern.quote(find), flags);
+		} catch (PatternSyntaxException e) {
+			setResults(new int[0], new int[0], 0, false, false);
+			searchedTo = 0;
+			lblCount.setText(Messages.CopyableDialog_errorPattern);
+			return;
+		}
+		final int end = content.getCharCount();
+		if (!full && (truncated || end == searchedTo)) {
+			// nothing appended, or no room for more matches
+			return;
+		}
+		// after an append, search again from the start of the last line searched
+		final int from = full ? 0 : content.getOffsetAtLine(content.getLineAtOffset(searchedTo));
+		final int[] keptStarts = starts;
+		final int[] keptLengths = lengths;
+		int i = full ? 0 : Arrays.binarySearch(starts, 0, count, from);
+		final int kept = (i >= 0) ? i : -i - 1;
+		// a mapped file can be read from any thread, anything else is copied
+		final StyledTextContent lines = (content instanceof MappedFileContent) ? content : null;
+		final String snapshot = (lines == null) ? text.getTextRange(from, end - from) : null;
+		job = new Job(Messages.CopyableDialog_jobFind) {
+			private int[] foundStarts;
+			private int[] foundLengths;
+			private int found;
+
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				foundStarts = Arrays.copyOf(keptStarts, Math.max(256, kept * 2));
+				foundLengths = Arrays.copyOf(keptLengths, foundStarts.length);
+				found = kept;
+				boolean complete;
+				if (snapshot != null) {
+					complete = find(pattern.matcher(snapshot), from, monitor);
+				} else {
+					complete = true;
+					int lineCount = lines.getLineCount();
+					for (int line = lines.getLineAtOffset(from); line < lineCount && complete; line++) {
+						if ((line & 0x3FF) == 0 && monitor.isCanceled()) {
+							return Status.CANCEL_STATUS;
+						}
+						complete = find(pattern.matcher(lines.getLine(line)), lines.getOffsetAtLine(line), monitor);
+					}
+				}
+				if (monitor.isCanceled()) {
+					return Status.CANCEL_STATUS;
+				}
+				final Job self = this;
+				final boolean capped = !complete;
+				if (!getDisplay().isDisposed()) {
+					getDisplay().asyncExec(new Runnable() {
+						public void run() {
+							if (!isDisposed() && job == self) {
+								job = null;
+								searchedTo = end;
+								setResults(foundStarts, foundLengths, found, capped, !fresh);
+							}
+						}
+					});
+				}
+				return Status.OK_STATUS;
+			}
+
+			/**
+			 * @return false if the match limit was reached
+			 */
+			private boolean find(Matcher matcher, int offset, IProgressMonitor monitor) {
+				while (matcher.find()) {
+					if (matcher.end() == matcher.start()) {
+						continue;
+					}
+					if (found == MAX_MATCHES) {
+						return false;
+					}
+					if (found == foundStarts.length) {
+						foundStarts = Arrays.copyOf(foundStarts, found * 2);
+						foundLengths = Arrays.copyOf(foundLengths, found * 2);
+					}
+					foundStarts[found] = offset + matcher.start();
+					foundLengths[found] = matcher.end() - matcher.start();
+					found++;
+					if ((found & 0xFFF) == 0 && monitor.isCanceled()) {
+						return true;
+					}
+				}
+				return true;
+			}
+		};
+		jobFresh = fresh;
+		jobFull = full;
+		job.setSystem(true);
+		job.schedule();
+	}
+
+	/**
+	 * Install new search results and repaint the visible lines. For a new
+	 * pattern the first match after the caret is selected. When only the
+	 * text changed, the current match stays current and the selection and
+	 * caret are left alone; only the count and the highlights change.
+	 *
+	 * @param keep true to keep the current match rather than select one
+	 */
+	private void setResults(int[] starts, int[] lengths, int count, boolean truncated, boolean keep) {
+		int currentStart = (keep && current >= 0 && current < this.count) ? this.starts[current] : -1;
+		this.starts = starts;
+		this.lengths = lengths;
+		this.count = count;
+		this.truncated = truncated;
+		this.current = -1;
+		if (count == 0) {
+			updateCount();
+		} else if (keep) {
+			int i = Arrays.binarySearch(starts, 0, count, (currentStart >= 0) ? currentStart : text.getCaretOffset());
+			current = (i >= 0) ? i : Math.min(-i - 1, count - 1);
+			updateCount();
+		} else {
+			int i = Arrays.binarySearch(starts, 0, count, text.getCaretOffset());
+			current = (i >= 0) ? i : Math.min(-i - 1, count - 1);
+			reveal();
+		}
+		text.redraw();
+	}
+
+	/**
+	 * Follow the text widget to new content, and search it again.
+	 */
+	void contentChanged() {
+		content.removeTextChangeListener(contentListener);
+		content = text.getContent();
+		content.addTextChangeListener(contentListener);
+		rescan = true;
+		scheduleSearch(false);
+	}
+
+	/**
+	 * Move to the next or previous match, wrapping around.
+	 *
+	 * @param forward true for the next match
+	 */
+	void next(boolean forward) {
+		if (count == 0) {
+			return;
+		}
+		current = (current + (forward ? 1 : count - 1)) % count;
+		reveal();
+		text.redraw();
+	}
+
+	/**
+	 * Select the current match and scroll it into view.
+	 */
+	private void reveal() {
+		int start = starts[current];
+		if (start + lengths[current] <= text.getCharCount()) {
+			text.setSelection(start, start + lengths[current]);
+			text.showSelection();
+		}
+		updateCount();
+	}
+
+	private void updateCount() {
+		if (count == 0) {
+			lblCount.setText(Messages.CopyableDialog_infoNoMatches);
+		} else {
+			String total = truncated ? count + "+" : String.valueOf(count); //$NON-NLS-1$
+			lblCount.setText(NLS.bind(Messages.CopyableDialog_infoMatches, Integer.valueOf(current + 1), total));
+		}
+	}
+
+	/**
+	 * Add a background to the matches within one line. Existing styles of
+	 * the line are kept, and the match background is laid over them.
+	 */
+	private void styleLine(LineStyleEvent event) {
+		if (count == 0) {
+			return;
+		}
+		int lineStart = event.lineOffset;
+		int lineEnd = lineStart + event.lineText.length();
+		// first match that ends after the line starts
+		int i = Arrays.binarySearch(starts, 0, count, lineStart);
+		i = (i >= 0) ? i : Math.max(0, -i - 2);
+		if (i < count && starts[i] + lengths[i] <= lineStart) {
+			i++;
+		}
+		StyleRange[] styles = (event.styles != null) ? event.styles : new StyleRange[0];
+		boolean changed = false;
+		for (; i < count && starts[i] < lineEnd; i++) {
+			int start = Math.max(starts[i], lineStart);
+			int end = Math.min(starts[i] + lengths[i], lineEnd);
+			if (start < end) {
+				StyleRange range = new StyleRange(start, end - start, null, (i == current) ? currentColor : matchColor);
+				styles = StyleRanges.overlay(styles, range);
+				changed = true;
+			}
+		}
+		if (changed) {
+			event.styles = styles;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Splits single lines of JSON, XML or log output into tokens.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.dialogs;
+
+import java.util.Arrays;
+
+/**
+ * Line-local tokenizers for the {@link ContentType}s. Each line is scanned
+ * on its own, without state carried over from the lines above, so any line
+ * can be tokenized when it becomes visible. Constructs that span lines, such
+ * as a multi-line XML comment, are only highlighted on the lines that show
+ * their delimiters.
+ * <p>
+ * Tokens are returned as a flat array of (start, length, kind) triples,
+ * sorted and not overlapping, with starts relative to the line. Three ints
+ * per token keep the per-line cache of {@link SyntaxHighlighter} small.
+ *
+ * @author dpurnhagen
+ */
+final class LineTokenizer {
+	static final int KEY = 0;
+	static final int STRING = 1;
+	static final int NUMBER = 2;
+	static final int LITERAL = 3;
+	static final int TAG = 4;
+	static final int ATTRIBUTE = 5;
+	static final int COMMENT = 6;
+	static final int ERROR = 7;
+	static final int WARN = 8;
+	static final int INFO = 9;
+	static final int DEBUG = 10;
+	/** Flag added to a kind for tokens drawn in bold. */
+	static final int BOLD = 0x100;
+
+	private static final int[] NONE = new int[0];
+	private static final String[] LEVEL_WORDS = {
+		"FATAL", "SEVERE", "ERROR", "WARNING", "WARN", "INFO", "DEBUG", "TRACE" //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+	};
+	private static final int[] LEVEL_KINDS = { ERROR, ERROR, ERROR, WARN, WARN, INFO, DEBUG, DEBUG };
+
+	private int[] tokens = new int[48];
+	private int size;
+
+	private LineTokenizer() {
+	}
+
+	/**
+	 * @param type the kind of text
+	 * @param line the line, without its delimiter
+	 * @return the (start, length, kind) triples of the line
+	 */
+	static int[] tokenize(ContentType type, String line) {
+		LineTokenizer t = new LineTokenizer();
+		switch (type) {
+		case JSON:
+			t.json(line);
+			break;
+		case XML:
+			t.xml(line);
+			break;
+		case LOG:
+			t.log(line);
+			break;
+		default:
+			return NONE;
+		}
+		return (t.size == 0) ? NONE : Arrays.copyOf(t.tokens, t.size);
+	}
+
+	private void add(int start, int end, int kind) {
+		if (end <= start) {
+			return;
+		}
+		if (size + 3 > tokens.length) {
+			tokens = Arrays.copyOf(tokens, tokens.length * 2);
+		}
+		tokens[size++] = start;
+		tokens[size++] = end - start;
+		tokens[size++] = kind;
+	}
+
+	private void json(String line) {
+		int n = line.length();
+		int i = 0;
+		while (i < n) {
+			char c = line.charAt(i);
+			if (c == '"') {
+				int end = skipString(line, i, '"');
+				int next = end;
+				while (next < n && Character.isWhitespace(line.charAt(next))) {
+					next++;
+				}
+				add(i, end, (next < n && line.charAt(next) == ':') ? KEY : STRING);
+				i = end;
+			} else if (c == '-' || Character.isDigit(c)) {
+				int end = i + 1;
+				while (end < n && "0123456789.eE+-".indexOf(line.charAt(end)) >= 0) { //$NON-NLS-1$
+					end++;
+				}
+				add(i, end, NUMBER);
+				i = end;
+			} else if (Character.isLetter(c)) {
+				int end = i + 1;
+				while (end < n && Character.isLetter(line.charAt(end))) {
+					end++;
+				}
+				String word = line.substring(i, end);
+				if ("true".equals(word) || "false".equals(word) || "null".equals(word)) { //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+					add(i, end, LITERAL);
+				}
+				i = end;
+			} else {
+				i++;
+			}
+		}
+	}
+
+	private void xml(String line) {
+		int n = line.length();
+		int i = 0;
+		while (i < n) {
+			if (line.startsWith("<!--", i)) { //$NON-NLS-1$
+				int end = line.indexOf("-->", i + 4); //$NON-NLS-1$
+				end = (end < 0) ? n : end + 3;
+				add(i, end, COMMENT);
+				i = end;
+			} else if (line.charAt(i) == '<') {
+				i = xmlTag(line, i);
+			} else {
+				i++;
+			}
+		}
+	}
+
+	/**
+	 * @return the position after the tag that starts at i
+	 */
+	private int xmlTag(String line, int i) {
+		int n = line.length();
+		int end = i + 1;
+		while (end < n && " \t>/".indexOf(line.charAt(end)) < 0) { //$NON-NLS-1$
+			end++;
+		}
+		if (end < n && line.charAt(end) == '/' && end == i + 1) {
+			// closing tag
+			end++;
+			while (end < n && " \t>".indexOf(line.charAt(end)) < 0) { //$NON-NLS-1$
+				end++;
+			}
+		}
+		add(i, end, TAG);
+		i = end;
+		while (i < n) {
+			char c = line.charAt(i);
+			if (c == '>' || (c == '/' && i + 1 < n && line.charAt(i + 1) == '>')) {
+				int close = (c == '>') ? i + 1 : i + 2;
+				add(i, close, TAG);
+				return close;
+			} else if (c == '"' || c == '\'') {
+				int stop = skipString(line, i, c);
+				add(i, stop, STRING);
+				i = stop;
+			} else if (Character.isLetter(c) || c == '_' || c == ':') {
+				int stop = i + 1;
+				while (stop < n && " \t=>/".indexOf(line.charAt(stop)) < 0) { //$NON-NLS-1$
+					stop++;
+				}
+				add(i, stop, ATTRIBUTE);
+				i = stop;
+			} else {
+				i++;
+			}
+		}
+		return n;
+	}
+
+	private void log(String line) {
+		int n = line.length();
+		// only look for the level in the first part of the line
+		int limit = Math.min(n, 120);
+		for (int w = 0; w < LEVEL_WORDS.length; w++) {
+			int at = indexOfWord(line, LEVEL_WORDS[w], limit);
+			if (at >= 0) {
+				int kind = LEVEL_KINDS[w];
+				int end = at + LEVEL_WORDS[w].length();
+				add(0, at, kind);
+				add(at, end, kind | BOLD);
+				add(end, n, kind);
+				return;
+			}
+		}
+	}
+
+	/**
+	 * @return the position of the word, delimited by non-letters, or -1
+	 */
+	private static int indexOfWord(String line, String word, int limit) {
+		int from = 0;
+		while (true) {
+			int at = line.indexOf(word, from);
+			if (at < 0 || at >= limit) {
+				return -1;
+			}
+			int end = at + word.length();
+			if ((at == 0 || !Character.isLetter(line.charAt(at - 1)))
+					&& (end == line.length() || !Character.isLetter(line.charAt(end)))) {
+				return at;
+			}
+			from = at + 1;
+		}
+	}
+
+	/**
+	 * @return the position after the closing quote, or the end of the line
+	 */
+	private static int skipString(String line, int start, char quote) {
+		int n = line.length();
+		for (int i = start + 1; i < n; i++) {
+			char c = line.charAt(i);
+			if (c == '\\' && quote == '"') {
+				i++;
+			} else if (c == quote) {
+				return i + 1;
+			}
+		}
+		return n;
+	}
+}
@@ -0,0 +1,453 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Read-only StyledText content served from a memory-mapped file.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.dialogs;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.swt.custom.StyledTextContent;
+import org.eclipse.swt.custom.TextChangeListener;
+import org.eclipse.swt.custom.TextChangedEvent;
+import org.eclipse.swt.widgets.Display;
+
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Serves the text of a UTF-8 file to a {@link org.eclipse.swt.custom.StyledText}
+ * without loading it into the Java heap. The file is memory-mapped, and a
+ * background job builds an index of the byte and character offset of every
+ * line. Only the lines that the widget asks for are decoded.
+ * <p>
+ * The content is empty until the index is complete; the widget is then told
+ * that the whole text has been set. Files larger than {@link #MAX_SIZE} bytes
+ * cannot be mapped, because StyledText offsets are ints. The content is
+ * read-only.
+ * <p>
+ * Lines longer than the optional maximum line length are shown truncated,
+ * ending with {@link #TRUNCATION_MARK}, so the widget never has to measure
+ * a huge line. The file itself is unchanged.
+ *
+ * @author dpurnhagen
+ */
+public class MappedFileContent implements StyledTextContent {
+	/** The largest file that can be shown, in bytes. */
+	public static final long MAX_SIZE = Integer.MAX_VALUE;
+
+	/** Appended to lines that are shown truncated. */
+	public static final char TRUNCATION_MARK = '\u2026';
+
+	private static final Charset UTF8 = Charset.forName("UTF-8"); //$NON-NLS-1$
+	private static final int CHUNK = 1 << 20;
+	private static final String LF = "\n"; //$NON-NLS-1$
+	private static final String CRLF = "\r\n"; //$NON-NLS-1$
+
+	private final Path path;
+	private final FileChannel channel;
+	private final MappedByteBuffer buffer;
+	private final int byteCount;
+	private final int maxLineLength;
+	private final List<TextChangeListener> listeners;
+	private volatile Index index;
+	private Job job;
+
+	/**
+	 * Line offsets of the file. Line i starts at byte lineBytes[i] and
+	 * character lineChars[i]; the arrays are one longer than the line count,
+	 * ending with the size of the file in bytes and characters. Character
+	 * offsets are those of the text as shown, after truncation.
+	 */
+	private static class Index {
+		final int[] lineBytes;
+		final int[] lineChars;
+		final int lineCount;
+		final String delimiter;
+		final int truncatedLines;
+
+		Index(int[] lineBytes, int[] lineChars, int lineCount, String delimiter, int truncatedLines) {
+			this.lineBytes = lineBytes;
+			this.lineChars = lineChars;
+			this.lineCount = lineCount;
+			this.delimiter = delimiter;
+			this.truncatedLines = truncatedLines;
+		}
+	}
+
+	/**
+	 * Map the file. Call {@link #startIndexing(Display)} to make the text
+	 * available, and {@link #dispose()} when the content is no longer used.
+	 *
+	 * @param path the UTF-8 file to show
+	 * @throws IOException if the file cannot be opened or is too large
+	 */
+	public MappedFileContent(Path path) throws IOException {
+		this(path, 0);
+	}
+
+	/**
+	 * Map the file, truncating the lines that are too long to show.
+	 *
+	 * @param path the UTF-8 file to show
+	 * @param maxLineLength the longest line shown in full, or 0 for no limit
+	 * @throws IOException if the file cannot be opened or is too large
+	 */
+	public MappedFileContent(Path path, int maxLineLength) throws IOException {
+		this.path = path;
+		this.maxLineLength = maxLineLength;
+		this.channel = FileChannel.open(path, StandardOpenOption.READ);
+		long size = channel.size();
+		if (size > MAX_SIZE) {
+			channel.close();
+			throw new IOException(NLS.bind(Messages.CopyableDialog_errorFileTooLarge, path, Long.valueOf(MAX_SIZE)));
+		}
+		this.byteCount = (int) size;
+		this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size);
+		this.listeners = new ArrayList<TextChangeListener>();
+		this.index = new Index(new int[] { 0, 0 }, new int[] { 0, 0 }, 1, System.getProperty("line.separator"), 0); //$NON-NLS-1$
+	}
+
+	/**
+	 * Build the line index in a background job. When the job is done, the
+	 * listeners are notified on the display thread that the text was set.
+	 *
+	 * @param display the display of the widget showing the content
+	 * @return the indexing job, already scheduled
+	 */
+	public Job startIndexing(final Display display) {
+		job = new Job(NLS.bind(Messages.CopyableDialog_jobIndex, path.getFileName())) {
+			@Override
+			protected IStatus run(IProgressMonitor monitor) {
+				final Index built = buildIndex(monitor);
+				if (built == null) {
+					return Status.CANCEL_STATUS;
+				}
+				if (!display.isDisposed()) {
+					display.asyncExec(new Runnable() {
+						public void run() {
+							index = built;
+							fireTextSet();
+						}
+					});
+				}
+				return Status.OK_STATUS;
+			}
+		};
+		job.schedule();
+		return job;
+	}
+
+	/**
+	 * @return the number of lines shown truncated, once the index is complete
+	 */
+	public int getTruncatedLineCount() {
+		return index.truncatedLines;
+	}
+
+	/**
+	 * @return the mapped file
+	 */
+	public Path getPath() {
+		return path;
+	}
+
+	/**
+	 * @return the size of the file in bytes
+	 */
+	public int getByteCount() {
+		return byteCount;
+	}
+
+	/**
+	 * Stop indexing and close the file. The mapping itself is released
+	 * when the buffer is garbage collected.
+	 */
+	public void dispose() {
+		if (job != null) {
+			job.cancel();
+		}
+		try {
+			channel.close();
+		} catch (IOException e) {
+			// nothing more to release
+		}
+	}
+
+	/**
+	 * Scan the file for line feeds, counting the UTF-16 characters of every
+	 * line without decoding it: every byte that does not continue a UTF-8
+	 * sequence starts a character, and 4-byte sequences need a surrogate pair.
+	 *
+	 * @return the index, or null if the monitor was cancelled
+	 */
+	private Index buildIndex(IProgressMonitor monitor) {
+		ByteBuffer bytes = buffer.duplicate();
+		monitor.beginTask(path.toString(), byteCount / CHUNK + 1);
+		int[] lineBytes = new int[1024];
+		int[] lineChars = new int[1024];
+		int lines = 1;
+		int chars = 0;
+		int lineStart = 0;
+		int shown = 0;
+		int truncated = 0;
+		String delimiter = null;
+		for (int i = 0; i < byteCount; i++) {
+			int b = bytes.get(i);
+			if ((b & 0xC0) != 0x80) {
+				chars++;
+				if ((b & 0xF8) == 0xF0) {
+					chars++;
+				}
+			}
+			if (b == '\n') {
+				int delimiterLength = (i > 0 && bytes.get(i - 1) == '\r') ? 2 : 1;
+				if (delimiter == null) {
+					delimiter = (delimiterLength == 2) ? CRLF : LF;
+				}
+				int length = chars - lineStart - delimiterLength;
+				if (isTruncated(length)) {
+					truncated++;
+				}
+				shown += shownLength(length) + delimiterLength;
+				lineStart = chars;
+				if (lines + 1 >= lineBytes.length) {
+					lineBytes = Arrays.copyOf(lineBytes, lineBytes.length * 2);
+					lineChars = Arrays.copyOf(lineChars, lineChars.length * 2);
+				}
+				lineBytes[lines] = i + 1;
+				lineChars[lines] = shown;
+				lines++;
+			}
+			if ((i & (CHUNK - 1)) == CHUNK - 1) {
+				if (monitor.isCanceled()) {
+					return null;
+				}
+				monitor.worked(1);
+			}
+		}
+		if (isTruncated(chars - lineStart)) {
+			truncated++;
+		}
+		shown += shownLength(chars - lineStart);
+		lineBytes[lines] = byteCount;
+		lineChars[lines] = shown;
+		monitor.done();
+		return new Index(lineBytes, lineChars, lines, (delimiter != null) ? delimiter : LF, truncated);
+	}
+
+	/**
+	 * @return true if a line of this length is shown truncated
+	 */
+	private boolean isTruncated(int length) {
+		return maxLineLength > 0 && length > maxLineLength;
+	}
+
+	/**
+	 * @return the length of a line as shown, including the truncation mark
+	 */
+	private int shownLength(int length) {
+		return isTruncated(length) ? maxLineLength + 1 : length;
+	}
+
+	/**
+	 * @return the number of delimiter bytes, which are also characters, at the end of the line
+	 */
+	private int delimiterLength(Index idx, int line) {
+		if (line + 1 >= idx.lineCount) {
+			return 0;
+		}
+		int next = idx.lineBytes[line + 1];
+		return (next >= 2 && buffer.get(next - 2) == '\r') ? 2 : 1;
+	}
+
+	/**
+	 * Decode part of a line, without its delimiter.
+	 *
+	 * @param line the line index
+	 * @param from the first character to return, relative to the line
+	 * @param to the end character, relative to the line
+	 */
+	private String decode(Index idx, int line, int from, int to) {
+		int delimiter = delimiterLength(idx, line);
+		int start = idx.lineBytes[line];
+		int length = idx.lineBytes[line + 1] - delimiter - start;
+		int chars = idx.lineChars[line + 1] - delimiter - idx.lineChars[line];
+		boolean truncated = maxLineLength > 0 && chars == maxLineLength + 1 && length > maxLineLength;
+		if (truncated) {
+			// decode just enough bytes for the characters that are shown
+			chars = maxLineLength;
+			length = Math.min(length, 4 * maxLineLength);
+		} else if (length == chars) {
+			// pure ASCII, decode only the requested range
+			start += from;
+			length = to - from;
+			from = 0;
+			to = length;
+			chars = length;
+		}
+		ByteBuffer slice = buffer.duplicate();
+		slice.limit(start + length);
+		slice.position(start);
+		String text = UTF8.decode(slice).toString();
+		if (text.length() != chars) {
+			// malformed input decodes to a different length than counted
+			StringBuilder sb = new StringBuilder(chars + 1);
+			sb.append(text, 0, Math.min(chars, text.length()));
+			while (sb.length() < chars) {
+				sb.append('\uFFFD');
+			}
+			text = sb.toString();
+		}
+		if (truncated) {
+			text = text + TRUNCATION_MARK;
+		}
+		return text.substring(from, to);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#addTextChangeListener(org.eclipse.swt.custom.TextChangeListener)
+	 */
+	@Override
+	public void addTextChangeListener(TextChangeListener listener) {
+		listeners.add(listener);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#getCharCount()
+	 */
+	@Override
+	public int getCharCount() {
+		Index idx = index;
+		return idx.lineChars[idx.lineCount];
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#getLine(int)
+	 */
+	@Override
+	public String getLine(int lineIndex) {
+		Index idx = index;
+		int chars = idx.lineChars[lineIndex + 1] - delimiterLength(idx, lineIndex) - idx.lineChars[lineIndex];
+		return decode(idx, lineIndex, 0, chars);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#getLineAtOffset(int)
+	 */
+	@Override
+	public int getLineAtOffset(int offset) {
+		Index idx = index;
+		int line = Arrays.binarySearch(idx.lineChars, 0, idx.lineCount, offset);
+		if (line < 0) {
+			// between two line starts
+			line = -line - 2;
+		}
+		return Math.max(0, line);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#getLineCount()
+	 */
+	@Override
+	public int getLineCount() {
+		return index.lineCount;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#getLineDelimiter()
+	 */
+	@Override
+	public String getLineDelimiter() {
+		return index.delimiter;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#getOffsetAtLine(int)
+	 */
+	@Override
+	public int getOffsetAtLine(int lineIndex) {
+		return index.lineChars[lineIndex];
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#getTextRange(int, int)
+	 */
+	@Override
+	public String getTextRange(int start, int length) {
+		Index idx = index;
+		StringBuilder sb = new StringBuilder(length);
+		int end = start + length;
+		int line = getLineAtOffset(start);
+		while (sb.length() < length && line < idx.lineCount) {
+			int lineStart = idx.lineChars[line];
+			int delimiter = delimiterLength(idx, line);
+			int textEnd = idx.lineChars[line + 1] - delimiter;
+			int from = Math.max(start, lineStart);
+			int to = Math.min(end, textEnd);
+			if (from < to) {
+				sb.append(decode(idx, line, from - lineStart, to - lineStart));
+			}
+			// the delimiter is CR LF or LF
+			for (int c = Math.max(from, textEnd); c < Math.min(end, textEnd + delimiter); c++) {
+				sb.append((delimiter == 2 && c == textEnd) ? '\r' : '\n');
+			}
+			line++;
+		}
+		return sb.toString();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#removeTextChangeListener(org.eclipse.swt.custom.TextChangeListener)
+	 */
+	@Override
+	public void removeTextChangeListener(TextChangeListener listener) {
+		listeners.remove(listener);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#replaceTextRange(int, int, java.lang.String)
+	 */
+	@Override
+	public void replaceTextRange(int start, int replaceLength, String text) {
+		throw new UnsupportedOperationException();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.StyledTextContent#setText(java.lang.String)
+	 */
+	@Override
+	public void setText(String text) {
+		throw new UnsupportedOperationException();
+	}
+
+	/**
+	 * Tell the widget that the whole text has changed.
+	 */
+	private void fireTextSet() {
+		TextChangedEvent event = new TextChangedEvent(this);
+		for (TextChangeListener listener : new ArrayList<TextChangeListener>(listeners)) {
+			listener.textSet(event);
+		}
+	}
+}
@@ -0,0 +1,257 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Streaming pretty-printer and reflow for text with very long lines.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.dialogs;
+
+import java.io.IOException;
+import java.io.PushbackReader;
+import java.io.Reader;
+import java.io.Writer;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.OperationCanceledException;
+
+/**
+ * Rewrites text so that it has reasonably short lines, reading and writing
+ * one character at a time so the input is never held in memory. JSON and
+ * XML are pretty-printed with one value or tag per line; anything else is
+ * reflowed by breaking long lines, preferably at white space. The formatters
+ * only look at the structure of the text, so invalid input is rewritten
+ * on a best-effort basis rather than rejected.
+ *
+ * @author dpurnhagen
+ */
+final class Reformatter {
+	private static final String INDENT = "  "; //$NON-NLS-1$
+	private static final int CHECK_INTERVAL = 64 * 1024;
+	// the most leading white space looked through to find the first character
+	private static final int LOOKAHEAD = 8 * 1024;
+
+	private final Reader in;
+	private final Writer out;
+	private final IProgressMonitor monitor;
+	private long count;
+
+	private Reformatter(Reader in, Writer out, IProgressMonitor monitor) {
+		this.in = in;
+		this.out = out;
+		this.monitor = monitor;
+	}
+
+	/**
+	 * Pretty-print JSON or XML, depending on the first non-blank character,
+	 * or reflow anything else. Text starting with more white space than
+	 * {@link #LOOKAHEAD} characters is reflowed.
+	 *
+	 * @param in the text to rewrite, buffered
+	 * @param out the destination, buffered
+	 * @param width the longest line written by reflow
+	 * @param monitor checked for cancellation
+	 * @throws IOException if reading or writing fails
+	 * @throws OperationCanceledException if the monitor is cancelled
+	 */
+	static void prettyPrint(Reader in, Writer out, int width, IProgressMonitor monitor) throws IOException {
+		// look ahead through a pushback buffer, which unlike mark() has no
+		// limit hidden in the buffering of the reader
+		PushbackReader pushback = new PushbackReader(in, LOOKAHEAD);
+		char[] ahead = new char[LOOKAHEAD];
+		int n = 0;
+		int c = -1;
+		while (n < LOOKAHEAD && (c = pushback.read()) >= 0) {
+			ahead[n++] = (char) c;
+			if (!Character.isWhitespace(c)) {
+				break;
+			}
+		}
+		pushback.unread(ahead, 0, n);
+		Reformatter r = new Reformatter(pushback, out, monitor);
+		if (c == '{' || c == '[') {
+			r.json();
+		} else if (c == '<') {
+			r.xml();
+		} else {
+			r.reflow(width);
+		}
+		out.flush();
+	}
+
+	/**
+	 * Break lines longer than the width, preferably after white space.
+	 *
+	 * @param in the text to rewrite, buffered
+	 * @param out the destination, buffered
+	 * @param width the longest line written
+	 * @param monitor checked for cancellation
+	 * @throws IOException if reading or writing fails
+	 * @throws OperationCanceledException if the monitor is cancelled
+	 */
+	static void reflow(Reader in, Writer out, int width, IProgressMonitor monitor) throws IOException {
+		new Reformatter(in, out, monitor).reflow(width);
+		out.flush();
+	}
+
+	private int read() throws IOException {
+		if (++count % CHECK_INTERVAL == 0 && monitor.isCanceled()) {
+			throw new OperationCanceledException();
+		}
+		return in.read();
+	}
+
+	private void newline(int depth) throws IOException {
+		out.write('\n');
+		indent(depth);
+	}
+
+	private void json() throws IOException {
+		int depth = 0;
+		int c;
+		while ((c = read()) >= 0) {
+			switch (c) {
+			case '"':
+				out.write(c);
+				copyString();
+				break;
+			case '{':
+			case '[':
+				out.write(c);
+				newline(++depth);
+				break;
+			case '}':
+			case ']':
+				newline(depth = Math.max(0, depth - 1));
+				out.write(c);
+				break;
+			case ',':
+				out.write(c);
+				newline(depth);
+				break;
+			case ':':
+				out.write(": "); //$NON-NLS-1$
+				break;
+			default:
+				if (!Character.isWhitespace(c)) {
+					out.write(c);
+				}
+			}
+		}
+	}
+
+	/**
+	 * Copy the rest of a JSON string, up to and including the closing quote.
+	 */
+	private void copyString() throws IOException {
+		int c;
+		while ((c = read()) >= 0) {
+			out.write(c);
+			if (c == '\\') {
+				c = read();
+				if (c < 0) {
+					return;
+				}
+				out.write(c);
+			} else if (c == '"') {
+				return;
+			}
+		}
+	}
+
+	private void xml() throws IOException {
+		int depth = 0;
+		boolean lineStart = true;
+		int c;
+		StringBuilder tag = new StringBuilder();
+		while ((c = read()) >= 0) {
+			if (c != '<') {
+				if (c == '\n' || c == '\r') {
+					continue;
+				}
+				if (lineStart) {
+					if (Character.isWhitespace(c)) {
+						continue;
+					}
+					indent(depth);
+					lineStart = false;
+				}
+				out.write(c);
+				continue;
+			}
+			// read the whole tag, which is short, to see what kind it is
+			tag.setLength(0);
+			tag.append('<');
+			int quote = 0;
+			while ((c = read()) >= 0) {
+				tag.append((char) c);
+				if (quote != 0) {
+					if (c == quote) {
+						quote = 0;
+					}
+				} else if (c == '"' || c == '\'') {
+					quote = c;
+				} else if (c == '>' && !(tag.indexOf("<!--") == 0 && !endsWith(tag, "-->"))) { //$NON-NLS-1$ //$NON-NLS-2$
+					break;
+				}
+			}
+			boolean closing = tag.length() > 1 && tag.charAt(1) == '/';
+			boolean opening = !closing && tag.length() > 1 && "?!".indexOf(tag.charAt(1)) < 0 //$NON-NLS-1$
+					&& !endsWith(tag, "/>"); //$NON-NLS-1$
+			if (closing) {
+				depth = Math.max(0, depth - 1);
+			}
+			if (!lineStart) {
+				out.write('\n');
+			}
+			indent(depth);
+			out.write(tag.toString());
+			out.write('\n');
+			lineStart = true;
+			if (opening) {
+				depth++;
+			}
+		}
+	}
+
+	private void indent(int depth) throws IOException {
+		for (int i = 0; i < depth; i++) {
+			out.write(INDENT);
+		}
+	}
+
+	private static boolean endsWith(StringBuilder sb, String suffix) {
+		int start = sb.length() - suffix.length();
+		return start >= 0 && sb.indexOf(suffix, start) == start;
+	}
+
+	private void reflow(int width) throws IOException {
+		StringBuilder line = new StringBuilder(width + 1);
+		int c;
+		while ((c = read()) >= 0) {
+			if (c == '\n') {
+				out.append(line).write('\n');
+				line.setLength(0);
+				continue;
+			}
+			line.append((char) c);
+			if (line.length() > width) {
+				int cut = width;
+				for (int i = width; i > width / 2; i--) {
+					if (Character.isWhitespace(line.charAt(i - 1))) {
+						cut = i;
+						break;
+					}
+				}
+				out.append(line, 0, cut).write('\n');
+				line.delete(0, cut);
+			}
+		}
+		out.append(line);
+	}
+}
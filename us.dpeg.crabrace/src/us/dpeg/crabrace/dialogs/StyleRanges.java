@@ -0,0 +1,91 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Helpers for combining the style ranges of one StyledText line.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.dialogs;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+import org.eclipse.swt.custom.StyleRange;
+
+/**
+ * Lets several line style listeners contribute to the same line. Each
+ * listener can lay its ranges over the ones set by the listeners before it,
+ * instead of replacing them.
+ *
+ * @author dpurnhagen
+ */
+final class StyleRanges {
+
+	private static final Comparator<StyleRange> BY_START = new Comparator<StyleRange>() {
+		@Override
+		public int compare(StyleRange a, StyleRange b) {
+			return (a.start < b.start) ? -1 : ((a.start == b.start) ? 0 : 1);
+		}
+	};
+
+	private StyleRanges() {
+	}
+
+	/**
+	 * Lay a background range over sorted, non-overlapping style ranges. Where
+	 * the ranges overlap, the base range keeps its foreground and font style
+	 * and takes the background of the overlay.
+	 *
+	 * @param base the existing ranges, sorted by start
+	 * @param overlay the range whose background is laid over them
+	 * @return the combined ranges, sorted by start
+	 */
+	static StyleRange[] overlay(StyleRange[] base, StyleRange overlay) {
+		int oStart = overlay.start;
+		int oEnd = overlay.start + overlay.length;
+		List<StyleRange> result = new ArrayList<StyleRange>(base.length + 2);
+		int cursor = oStart;
+		for (StyleRange r : base) {
+			int rEnd = r.start + r.length;
+			if (rEnd <= oStart || r.start >= oEnd) {
+				result.add(r);
+				continue;
+			}
+			if (r.start < oStart) {
+				result.add(piece(r, r.start, oStart));
+			}
+			if (r.start > cursor) {
+				result.add(piece(overlay, cursor, r.start));
+			}
+			StyleRange inside = piece(r, Math.max(r.start, oStart), Math.min(rEnd, oEnd));
+			inside.background = overlay.background;
+			result.add(inside);
+			if (rEnd > oEnd) {
+				result.add(piece(r, oEnd, rEnd));
+			}
+			cursor = Math.max(cursor, rEnd);
+		}
+		if (cursor < oEnd) {
+			result.add(piece(overlay, cursor, oEnd));
+		}
+		Collections.sort(result, BY_START);
+		return result.toArray(new StyleRange[result.size()]);
+	}
+
+	/**
+	 * @return a copy of the range, limited to [start, end)
+	 */
+	private static StyleRange piece(StyleRange range, int start, int end) {
+		StyleRange copy = (StyleRange) range.clone();
+		copy.start = start;
+		copy.length = end - start;
+		return copy;
+	}
+}
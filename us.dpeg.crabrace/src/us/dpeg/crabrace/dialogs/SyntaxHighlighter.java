@@ -0,0 +1,118 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Lazy, cached syntax and log-level highlighting for a StyledText.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.dialogs;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.custom.LineStyleEvent;
+import org.eclipse.swt.custom.LineStyleListener;
+import org.eclipse.swt.custom.StyleRange;
+import org.eclipse.swt.graphics.Color;
+import org.eclipse.swt.widgets.Display;
+
+/**
+ * Highlights the lines of a {@link org.eclipse.swt.custom.StyledText} as
+ * they are drawn. Nothing is styled up front: a line is tokenized by the
+ * {@link LineTokenizer} the first time it becomes visible, and its tokens
+ * are cached by line text in a bounded LRU map. Because the cache is keyed
+ * by text rather than by line number, appending, trimming or editing text
+ * does not invalidate the tokens of the lines that did not change; only new
+ * or changed lines are tokenized again. Lines longer than
+ * {@link #MAX_LINE_LENGTH} are not highlighted.
+ *
+ * @author dpurnhagen
+ */
+class SyntaxHighlighter implements LineStyleListener {
+	static final int MAX_LINE_LENGTH = 10000;
+	private static final int CACHE_LINES = 4096;
+
+	private final Color[] colors;
+	private ContentType type;
+	private final Map<String, int[]> cache;
+
+	/**
+	 * @param display the display that owns the colors
+	 * @param type the kind of text to highlight
+	 */
+	SyntaxHighlighter(Display display, ContentType type) {
+		this.type = type;
+		this.cache = new LinkedHashMap<String, int[]>(CACHE_LINES, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, int[]> eldest) {
+				return size() > CACHE_LINES;
+			}
+		};
+		colors = new Color[LineTokenizer.DEBUG + 1];
+		colors[LineTokenizer.KEY] = display.getSystemColor(SWT.COLOR_DARK_BLUE);
+		colors[LineTokenizer.STRING] = display.getSystemColor(SWT.COLOR_DARK_GREEN);
+		colors[LineTokenizer.NUMBER] = display.getSystemColor(SWT.COLOR_DARK_MAGENTA);
+		colors[LineTokenizer.LITERAL] = display.getSystemColor(SWT.COLOR_DARK_MAGENTA);
+		colors[LineTokenizer.TAG] = display.getSystemColor(SWT.COLOR_DARK_BLUE);
+		colors[LineTokenizer.ATTRIBUTE] = display.getSystemColor(SWT.COLOR_DARK_RED);
+		colors[LineTokenizer.COMMENT] = display.getSystemColor(SWT.COLOR_DARK_GRAY);
+		colors[LineTokenizer.ERROR] = display.getSystemColor(SWT.COLOR_RED);
+		colors[LineTokenizer.WARN] = display.getSystemColor(SWT.COLOR_DARK_YELLOW);
+		colors[LineTokenizer.INFO] = display.getSystemColor(SWT.COLOR_BLUE);
+		colors[LineTokenizer.DEBUG] = display.getSystemColor(SWT.COLOR_DARK_GRAY);
+	}
+
+	/**
+	 * @return the kind of text being highlighted
+	 */
+	ContentType getContentType() {
+		return type;
+	}
+
+	/**
+	 * Change the kind of text. The caller should redraw the widget.
+	 *
+	 * @param type the kind of text to highlight
+	 */
+	void setContentType(ContentType type) {
+		if (this.type != type) {
+			this.type = type;
+			cache.clear();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.swt.custom.LineStyleListener#lineGetStyle(org.eclipse.swt.custom.LineStyleEvent)
+	 */
+	@Override
+	public void lineGetStyle(LineStyleEvent event) {
+		String line = event.lineText;
+		if (type == ContentType.PLAIN || line.length() == 0 || line.length() > MAX_LINE_LENGTH) {
+			return;
+		}
+		int[] tokens = cache.get(line);
+		if (tokens == null) {
+			tokens = LineTokenizer.tokenize(type, line);
+			cache.put(line, tokens);
+		}
+		if (tokens.length == 0) {
+			return;
+		}
+		StyleRange[] styles = new StyleRange[tokens.length / 3];
+		for (int i = 0; i < styles.length; i++) {
+			int kind = tokens[3 * i + 2];
+			int fontStyle = ((kind & LineTokenizer.BOLD) != 0) ? SWT.BOLD : SWT.NORMAL;
+			styles[i] = new StyleRange(event.lineOffset + tokens[3 * i], tokens[3 * i + 1],
+					colors[kind & ~LineTokenizer.BOLD], null, fontStyle);
+		}
+		event.styles = styles;
+	}
+}
@@ -0,0 +1,662 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Workspace-wide, persistent index of the crab properties.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.index;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IContainer;
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.ISaveContext;
+import org.eclipse.core.resources.ISaveParticipant;
+import org.eclipse.core.resources.ISavedState;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRoot;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+
+import us.dpeg.crabrace.Activator;
+import us.dpeg.crabrace.Messages;
+import us.dpeg.crabrace.properties.CrabProperty;
+import us.dpeg.crabrace.properties.CrabPropertyCache;
+import us.dpeg.crabrace.properties.ICrabPropertyListener;
+
+/**
+ * Index of the {@link CrabProperty} values of every crab file in the
+ * workspace, so queries such as "all crabs owned by X" do not have to
+ * visit every file.
+ * <p>
+ * The index is kept in memory, with lookup tables by owner, by looks and
+ * by agility, and saved in the state location of the plug-in whenever the
+ * workspace is saved. As a save participant it gets the resource deltas
+ * since that save when the plug-in starts again, so it is only rebuilt from
+ * scratch when the file is missing or corrupt. After that, resource deltas
+ * and property writes through the {@link CrabPropertyCache} queue the
+ * affected files, and a background job reads their properties.
+ * <p>
+ * The queries are thread-safe and return copies; they answer from memory,
+ * so they may not yet reflect changes still queued. The distinct owners
+ * are also kept in an {@link OwnerIndex} for prefix lookups, rebuilt by
+ * the update job when owners come or go and read without locking.
+ *
+ * @author dpurnhagen
+ */
+public class CrabIndex implements IResourceChangeListener, ISaveParticipant, ICrabPropertyListener {
+	private static final String FILE_NAME = "crabs.index"; //$NON-NLS-1$
+	private static final int UPDATE_DELAY = 500;
+
+	/**
+	 * The indexed values of one crab file.
+	 */
+	public static final class Entry {
+		private final IPath path;
+		private final boolean agile;
+		private final int looks;
+		private final String owner;
+
+		Entry(IPath path, boolean agile, int looks, String owner) {
+			this.path = path;
+			this.agile = agile;
+			this.looks = looks;
+			this.owner = owner;
+		}
+
+		/**
+		 * @return the full path of the file in the workspace
+		 */
+		public IPath getPath() {
+			return path;
+		}
+
+		/**
+		 * @return the {@link CrabProperty#AGILITY} value
+		 */
+		public boolean isAgile() {
+			return agile;
+		}
+
+		/**
+		 * @return the {@link CrabProperty#LOOKS} value
+		 */
+		public int getLooks() {
+			return looks;
+		}
+
+		/**
+		 * @return the {@link CrabProperty#OWNER} value
+		 */
+		public String getOwner() {
+			return owner;
+		}
+	}
+
+	private final File file;
+	private final CrabPropertyCache cache;
+	private final Map<IPath, Entry> entries = new HashMap<IPath, Entry>();
+	private final Map<String, Set<IPath>> byOwner = new HashMap<String, Set<IPath>>();
+	private final List<Set<IPath>> byLooks = new ArrayList<Set<IPath>>();
+	private final Set<IPath> agile = new HashSet<IPath>();
+	private final Object pendingLock = new Object();
+	private final Set<IPath> pendingFiles = new LinkedHashSet<IPath>();
+	private final Set<IPath> pendingContainers = new LinkedHashSet<IPath>();
+	private boolean rebuildPending;
+	// the update job and a workspace save may both apply the queue
+	private final Object updateLock = new Object();
+	private volatile boolean ready;
+	private volatile OwnerIndex ownerIndex = OwnerIndex.EMPTY;
+	// an owner was added or removed since the owner index was built
+	private boolean ownersChanged;
+	private final Job updateJob = new Job(Messages.CrabIndex_jobUpdate) {
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			return update(monitor);
+		}
+	};
+
+	/**
+	 * @param file the file the index is saved in
+	 * @param cache the cache to read properties through
+	 */
+	public CrabIndex(File file, CrabPropertyCache cache) {
+		this.file = file;
+		this.cache = cache;
+		for (int looks = 0; looks <= CrabProperty.LOOKS_MAX; looks++) {
+			byLooks.add(new HashSet<IPath>());
+		}
+		updateJob.setSystem(true);
+		updateJob.setPriority(Job.DECORATE);
+	}
+
+	/**
+	 * @return an index saved in the state location of the plug-in
+	 */
+	public static CrabIndex create() {
+		Activator plugin = Activator.getDefault();
+		return new CrabIndex(plugin.getStateLocation().append(FILE_NAME).toFile(), plugin.getPropertyCache());
+	}
+
+	/**
+	 * Load the saved index and start following the workspace. If the saved
+	 * index cannot be read, a rebuild is scheduled.
+	 *
+	 * @throws CoreException if the save participant cannot be registered
+	 */
+	public void start() throws CoreException {
+		boolean loaded = load();
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		cache.addPropertyListener(this);
+		ISavedState state = workspace.addSaveParticipant(Activator.PLUGIN_ID, this);
+		if (loaded && state != null) {
+			// catch up with the changes made since the index was saved
+			state.processResourceChangeEvents(this);
+		} else if (loaded) {
+			// no deltas to catch up with
+			loaded = false;
+		}
+		workspace.addResourceChangeListener(this, IResourceChangeEvent.POST_CHANGE);
+		if (loaded) {
+			ready = true;
+		} else {
+			rebuild();
+		}
+	}
+
+	/**
+	 * Stop following the workspace. The index is saved by the last
+	 * workspace save, which comes before the plug-in stops.
+	 */
+	public void stop() {
+		IWorkspace workspace = ResourcesPlugin.getWorkspace();
+		workspace.removeResourceChangeListener(this);
+		workspace.removeSaveParticipant(Activator.PLUGIN_ID);
+		cache.removePropertyListener(this);
+		updateJob.cancel();
+	}
+
+	/**
+	 * Throw the index away and build it again in the background.
+	 */
+	public void rebuild() {
+		synchronized (pendingLock) {
+			rebuildPending = true;
+			// not saved, and not trusted, until the rebuild completes
+			ready = false;
+			pendingFiles.clear();
+			pendingContainers.clear();
+		}
+		updateJob.schedule();
+	}
+
+	/**
+	 * @return false while the index is being built from scratch
+	 */
+	public boolean isReady() {
+		return ready;
+	}
+
+	/**
+	 * @return the number of crab files in the index
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * @param path the full path of a crab file
+	 * @return its indexed values, or null if it is not in the index
+	 */
+	public synchronized Entry get(IPath path) {
+		return entries.get(path);
+	}
+
+	/**
+	 * @param owner the owner, ignoring case
+	 * @return the paths of the crabs with the owner
+	 */
+	public synchronized List<IPath> findByOwner(String owner) {
+		Set<IPath> paths = byOwner.get(ownerKey(owner));
+		return (paths != null) ? new ArrayList<IPath>(paths) : Collections.<IPath> emptyList();
+	}
+
+	/**
+	 * @param min the lowest looks factor
+	 * @param max the highest looks factor
+	 * @return the paths of the crabs with looks from min to max
+	 */
+	public synchronized List<IPath> findByLooks(int min, int max) {
+		List<IPath> paths = new ArrayList<IPath>();
+		for (int looks = Math.max(min, 0); looks <= Math.min(max, CrabProperty.LOOKS_MAX); looks++) {
+			paths.addAll(byLooks.get(looks));
+		}
+		return paths;
+	}
+
+	/**
+	 * @param agility the agility to look for
+	 * @return the paths of the crabs with the agility
+	 */
+	public synchronized List<IPath> findByAgility(boolean agility) {
+		if (agility) {
+			return new ArrayList<IPath>(agile);
+		}
+		List<IPath> paths = new ArrayList<IPath>(entries.size() - agile.size());
+		for (IPath path : entries.keySet()) {
+			if (!agile.contains(path)) {
+				paths.add(path);
+			}
+		}
+		return paths;
+	}
+
+	/**
+	 * @return the prefix index of the distinct owners; never blocks
+	 */
+	public OwnerIndex getOwnerIndex() {
+		return ownerIndex;
+	}
+
+	/**
+	 * Build the owner index again, if owners were added or removed.
+	 */
+	private void refreshOwners() {
+		List<String> owners;
+		synchronized (this) {
+			if (!ownersChanged) {
+				return;
+			}
+			ownersChanged = false;
+			owners = getOwners();
+		}
+		// sort outside the lock, queries need not wait for it
+		ownerIndex = OwnerIndex.build(owners);
+	}
+
+	/**
+	 * @return the distinct owners in the index, in no particular order;
+	 *         owners differing only in case are one owner, spelled as in
+	 *         any one of its files
+	 */
+	public synchronized List<String> getOwners() {
+		List<String> owners = new ArrayList<String>(byOwner.size());
+		for (Set<IPath> paths : byOwner.values()) {
+			owners.add(entries.get(paths.iterator().next()).getOwner());
+		}
+		return owners;
+	}
+
+	private static String ownerKey(String owner) {
+		return (owner != null) ? owner.toLowerCase(Locale.ROOT) : ""; //$NON-NLS-1$
+	}
+
+	synchronized void put(Entry entry) {
+		remove(entry.getPath());
+		IPath path = entry.getPath();
+		entries.put(path, entry);
+		String key = ownerKey(entry.getOwner());
+		Set<IPath> owned = byOwner.get(key);
+		if (owned == null) {
+			owned = new HashSet<IPath>();
+			byOwner.put(key, owned);
+			ownersChanged = true;
+		}
+		owned.add(path);
+		byLooks.get(entry.getLooks()).add(path);
+		if (entry.isAgile()) {
+			agile.add(path);
+		}
+	}
+
+	private synchronized void remove(IPath path) {
+		Entry entry = entries.remove(path);
+		if (entry == null) {
+			return;
+		}
+		String key = ownerKey(entry.getOwner());
+		Set<IPath> owned = byOwner.get(key);
+		owned.remove(path);
+		if (owned.isEmpty()) {
+			byOwner.remove(key);
+			ownersChanged = true;
+		}
+		byLooks.get(entry.getLooks()).remove(path);
+		agile.remove(path);
+	}
+
+	private synchronized void removeAll(IPath container) {
+		List<IPath> removed = new ArrayList<IPath>();
+		for (IPath path : entries.keySet()) {
+			if (container.isPrefixOf(path)) {
+				removed.add(path);
+			}
+		}
+		for (IPath path : removed) {
+			remove(path);
+		}
+	}
+
+	private synchronized void clear() {
+		entries.clear();
+		byOwner.clear();
+		ownersChanged = true;
+		for (Set<IPath> paths : byLooks) {
+			paths.clear();
+		}
+		agile.clear();
+	}
+
+	/**
+	 * @return a snapshot of all entries
+	 */
+	synchronized Collection<Entry> entries() {
+		return new ArrayList<Entry>(entries.values());
+	}
+
+	/**
+	 * Read the saved index.
+	 *
+	 * @return false if there is no usable saved index
+	 */
+	private boolean load() {
+		if (!file.isFile()) {
+			return false;
+		}
+		try {
+			List<Entry> loaded = IndexFile.read(file);
+			synchronized (this) {
+				clear();
+				for (Entry entry : loaded) {
+					put(entry);
+				}
+			}
+			refreshOwners();
+			return true;
+		} catch (IOException e) {
+			// corrupt or from another version; rebuild it
+			Activator.getDefault().getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, e.getMessage(), e));
+			file.delete();
+			return false;
+		}
+	}
+
+	private static boolean isCrab(IResource resource) {
+		return resource.getType() == IResource.FILE && CrabProperty.EXTENSION.equals(resource.getFileExtension());
+	}
+
+	private Entry read(IFile crab) {
+		return new Entry(crab.getFullPath(),
+				cache.get(crab, CrabProperty.AGILITY).booleanValue(),
+				cache.get(crab, CrabProperty.LOOKS).intValue(),
+				cache.get(crab, CrabProperty.OWNER));
+	}
+
+	/**
+	 * Apply the queued changes, or rebuild the index.
+	 */
+	private IStatus update(IProgressMonitor monitor) {
+		synchronized (updateLock) {
+			try {
+				return doUpdate(monitor);
+			} finally {
+				refreshOwners();
+			}
+		}
+	}
+
+	private IStatus doUpdate(IProgressMonitor monitor) {
+		boolean rebuild;
+		List<IPath> files;
+		List<IPath> containers;
+		synchronized (pendingLock) {
+			rebuild = rebuildPending;
+			rebuildPending = false;
+			files = new ArrayList<IPath>(pendingFiles);
+			pendingFiles.clear();
+			containers = new ArrayList<IPath>(pendingContainers);
+			pendingContainers.clear();
+		}
+		IWorkspaceRoot root = ResourcesPlugin.getWorkspace().getRoot();
+		try {
+			if (rebuild) {
+				List<Entry> built = scan(root, monitor);
+				if (monitor.isCanceled()) {
+					// a partial scan must not replace the index; start over
+					synchronized (pendingLock) {
+						rebuildPending = true;
+						pendingFiles.addAll(files);
+						pendingContainers.addAll(containers);
+					}
+					return Status.CANCEL_STATUS;
+				}
+				synchronized (this) {
+					clear();
+					for (Entry entry : built) {
+						put(entry);
+					}
+				}
+				ready = true;
+				// save now, so the next start does not rebuild again
+				save();
+			}
+			for (int i = 0; i < containers.size(); i++) {
+				IPath path = containers.get(i);
+				IResource container = root.findMember(path);
+				List<Entry> found = new ArrayList<Entry>(0);
+				if (container instanceof IContainer && container.isAccessible()) {
+					found = scan((IContainer) container, monitor);
+				}
+				if (monitor.isCanceled()) {
+					synchronized (pendingLock) {
+						pendingContainers.addAll(containers.subList(i, containers.size()));
+						pendingFiles.addAll(files);
+					}
+					return Status.CANCEL_STATUS;
+				}
+				synchronized (this) {
+					removeAll(path);
+					for (Entry entry : found) {
+						put(entry);
+					}
+				}
+			}
+			for (IPath path : files) {
+				if (monitor.isCanceled()) {
+					requeue(files);
+					return Status.CANCEL_STATUS;
+				}
+				IFile crab = root.getFile(path);
+				if (crab.isAccessible()) {
+					put(read(crab));
+				} else {
+					remove(path);
+				}
+			}
+		} catch (CoreException e) {
+			return e.getStatus();
+		} catch (IOException e) {
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID, Messages.CrabIndex_errorSave, e);
+		}
+		return Status.OK_STATUS;
+	}
+
+	private void requeue(List<IPath> files) {
+		synchronized (pendingLock) {
+			pendingFiles.addAll(files);
+		}
+	}
+
+	/**
+	 * Read every crab file in a container.
+	 */
+	private List<Entry> scan(IContainer container, final IProgressMonitor monitor) throws CoreException {
+		final List<Entry> found = new ArrayList<Entry>();
+		container.accept(new IResourceProxyVisitor() {
+			public boolean visit(IResourceProxy proxy) {
+				if (monitor.isCanceled()) {
+					return false;
+				}
+				if (proxy.getType() == IResource.FILE) {
+					if (proxy.getName().endsWith('.' + CrabProperty.EXTENSION)) {
+						found.add(read((IFile) proxy.requestResource()));
+					}
+					return false;
+				}
+				return true;
+			}
+		}, IResource.NONE);
+		return found;
+	}
+
+	private void save() throws IOException {
+		IndexFile.write(file, entries());
+	}
+
+	private void schedule() {
+		updateJob.schedule(UPDATE_DELAY);
+	}
+
+	/* (non-Javadoc)
+	 * @see us.dpeg.crabrace.properties.ICrabPropertyListener#propertiesChanged(org.eclipse.core.resources.IResource)
+	 */
+	public void propertiesChanged(IResource resource) {
+		if (isCrab(resource)) {
+			synchronized (pendingLock) {
+				pendingFiles.add(resource.getFullPath());
+			}
+			schedule();
+		} else if (resource instanceof IContainer) {
+			synchronized (pendingLock) {
+				pendingContainers.add(resource.getFullPath());
+			}
+			schedule();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.IResourceChangeListener#resourceChanged(org.eclipse.core.resources.IResourceChangeEvent)
+	 */
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta delta = event.getDelta();
+		if (delta == null) {
+			return;
+		}
+		final boolean[] queued = new boolean[1];
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+				public boolean visit(IResourceDelta child) {
+					IResource resource = child.getResource();
+					if (isCrab(resource)) {
+						if (child.getKind() != IResourceDelta.CHANGED
+								|| (child.getFlags() & (IResourceDelta.REPLACED | IResourceDelta.TYPE)) != 0) {
+							synchronized (pendingLock) {
+								pendingFiles.add(resource.getFullPath());
+							}
+							queued[0] = true;
+						}
+						return false;
+					}
+					if (resource.getType() == IResource.PROJECT && (child.getFlags() & IResourceDelta.OPEN) != 0) {
+						// opened or closed; the delta has no children
+						synchronized (pendingLock) {
+							pendingContainers.add(resource.getFullPath());
+						}
+						queued[0] = true;
+						return false;
+					}
+					return true;
+				}
+			});
+		} catch (CoreException e) {
+			Activator.getDefault().getLog().log(e.getStatus());
+			rebuild();
+			return;
+		}
+		if (queued[0]) {
+			schedule();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.ISaveParticipant#prepareToSave(org.eclipse.core.resources.ISaveContext)
+	 */
+	public void prepareToSave(ISaveContext context) throws CoreException {
+		// nothing to prepare
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.ISaveParticipant#saving(org.eclipse.core.resources.ISaveContext)
+	 */
+	public void saving(ISaveContext context) throws CoreException {
+		if (context.getKind() == ISaveContext.PROJECT_SAVE) {
+			return;
+		}
+		synchronized (pendingLock) {
+			if (rebuildPending || !ready) {
+				// nothing worth saving yet, and no deltas are kept for the
+				// old file; delete it so the next start rebuilds
+				file.delete();
+				return;
+			}
+		}
+		// apply the queued changes, so the saved index matches the state
+		updateJob.cancel();
+		update(new NullProgressMonitor());
+		try {
+			save();
+		} catch (IOException e) {
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID, Messages.CrabIndex_errorSave, e));
+		}
+		// only a save that asks for a save number counts as taking part,
+		// and without it start() gets no saved state to catch up from
+		context.needSaveNumber();
+		context.needDelta();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.ISaveParticipant#doneSaving(org.eclipse.core.resources.ISaveContext)
+	 */
+	public void doneSaving(ISaveContext context) {
+		// only one index file is kept
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.ISaveParticipant#rollback(org.eclipse.core.resources.ISaveContext)
+	 */
+	public void rollback(ISaveContext context) {
+		// the index file matches the state of the failed save; rebuild on
+		// the next start rather than trusting deltas that do not match it
+		file.delete();
+	}
+}
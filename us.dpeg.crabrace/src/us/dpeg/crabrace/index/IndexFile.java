@@ -0,0 +1,130 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Binary file format of the crab index.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.index;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+import java.util.zip.CheckedOutputStream;
+
+import org.eclipse.core.runtime.Path;
+
+import us.dpeg.crabrace.properties.CrabProperty;
+
+/**
+ * Reads and writes the entries of a {@link CrabIndex}.
+ * <p>
+ * The file holds a magic number, a version and the entry count, then each
+ * entry as its portable path, agility, looks and owner, and ends with a
+ * CRC-32 of everything before it. A file that is truncated, has another
+ * version or a bad checksum cannot be read, so the index is rebuilt. The
+ * file is written next to the old one and moved over it, so a crash never
+ * leaves a half written index behind.
+ *
+ * @author dpurnhagen
+ */
+final class IndexFile {
+	private static final int MAGIC = 0x43524258; // CRBX
+	private static final int VERSION = 1;
+	private static final int BUFFER_SIZE = 64 * 1024;
+
+	private IndexFile() {
+	}
+
+	/**
+	 * @param file the index file
+	 * @return the entries
+	 * @throws IOException if the file cannot be read or is corrupt
+	 */
+	static List<CrabIndex.Entry> read(File file) throws IOException {
+		CRC32 crc = new CRC32();
+		try (DataInputStream in = new DataInputStream(new CheckedInputStream(
+				new BufferedInputStream(new FileInputStream(file), BUFFER_SIZE), crc))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION) {
+				throw new IOException("Unknown index format: " + file); //$NON-NLS-1$
+			}
+			int count = in.readInt();
+			if (count < 0) {
+				throw new IOException("Corrupt index: " + file); //$NON-NLS-1$
+			}
+			List<CrabIndex.Entry> entries = new ArrayList<CrabIndex.Entry>(Math.min(count, 1 << 20));
+			// most crabs share a few owners; keep one copy of each name
+			Map<String, String> owners = new HashMap<String, String>();
+			for (int i = 0; i < count; i++) {
+				String path = in.readUTF();
+				boolean agile = in.readBoolean();
+				int looks = in.readByte();
+				String owner = in.readUTF();
+				if (looks < 0 || looks > CrabProperty.LOOKS_MAX) {
+					throw new IOException("Corrupt index: " + file); //$NON-NLS-1$
+				}
+				String shared = owners.get(owner);
+				if (shared == null) {
+					owners.put(owner, owner);
+					shared = owner;
+				}
+				entries.add(new CrabIndex.Entry(Path.fromPortableString(path), agile, looks, shared));
+			}
+			long expected = crc.getValue();
+			if (in.readLong() != expected) {
+				throw new IOException("Corrupt index: " + file); //$NON-NLS-1$
+			}
+			return entries;
+		}
+	}
+
+	/**
+	 * @param file the index file
+	 * @param entries the entries
+	 * @throws IOException if the file cannot be written
+	 */
+	static void write(File file, Collection<CrabIndex.Entry> entries) throws IOException {
+		File temp = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+		CRC32 crc = new CRC32();
+		try (DataOutputStream out = new DataOutputStream(new CheckedOutputStream(
+				new BufferedOutputStream(new FileOutputStream(temp), BUFFER_SIZE), crc))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeInt(entries.size());
+			for (CrabIndex.Entry entry : entries) {
+				out.writeUTF(entry.getPath().toPortableString());
+				out.writeBoolean(entry.isAgile());
+				out.writeByte(entry.getLooks());
+				out.writeUTF((entry.getOwner() != null) ? entry.getOwner() : ""); //$NON-NLS-1$
+			}
+			out.flush();
+			out.writeLong(crc.getValue());
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+	}
+}
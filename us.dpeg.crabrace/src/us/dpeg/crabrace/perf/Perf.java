@@ -0,0 +1,134 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Registry of the timers and counters of the plug-in.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.perf;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * The {@link PerfTimer}s and {@link PerfCounter}s of the main code paths of
+ * the plug-in.
+ * <p>
+ * Recording is off by default. It is switched on by the
+ * {@code us.dpeg.crabrace/perf} option in the {@code .options} file of the
+ * plug-in, through {@link PerfOptions}, or by {@link #setEnabled(boolean)}.
+ * The values can be polled through the getters of each timer and counter,
+ * or dumped with {@link #report()}.
+ *
+ * @author dpurnhagen
+ */
+public final class Perf {
+	private static final List<PerfTimer> TIMERS = new CopyOnWriteArrayList<PerfTimer>();
+	private static final List<PerfCounter> COUNTERS = new CopyOnWriteArrayList<PerfCounter>();
+	private static volatile boolean enabled;
+
+	/** CrabraceProperties.createContents */
+	public static final PerfTimer PAGE_CREATE = timer("CrabraceProperties.createContents"); //$NON-NLS-1$
+	/** CrabraceProperties.performOk, up to scheduling the save */
+	public static final PerfTimer PAGE_OK = timer("CrabraceProperties.performOk"); //$NON-NLS-1$
+	/** ComboComposites.getComposite, including building the page */
+	public static final PerfTimer COMBO_GET = timer("ComboComposites.getComposite"); //$NON-NLS-1$
+	/** ComboComposites.setSelection */
+	public static final PerfTimer COMBO_SELECT = timer("ComboComposites.setSelection"); //$NON-NLS-1$
+	/** ComboComposites.showSelection, including the layout */
+	public static final PerfTimer COMBO_SHOW = timer("ComboComposites.showSelection"); //$NON-NLS-1$
+	/** CopyableDialog.create, building the dialog before it opens */
+	public static final PerfTimer DIALOG_CREATE = timer("CopyableDialog.create"); //$NON-NLS-1$
+	/** CopyableDialog copy, up to the text reaching the clipboard */
+	public static final PerfTimer DIALOG_COPY = timer("CopyableDialog.copy"); //$NON-NLS-1$
+	/** Owner content assist lookups */
+	public static final PerfTimer OWNER_PROPOSALS = timer("OwnerProposalProvider.getProposals"); //$NON-NLS-1$
+	/** Pages built by ComboComposites */
+	public static final PerfCounter COMBO_PAGES_BUILT = counter("ComboComposites.pagesBuilt"); //$NON-NLS-1$
+	/** Characters placed on the clipboard by CopyableDialog */
+	public static final PerfCounter DIALOG_CHARS_COPIED = counter("CopyableDialog.charsCopied"); //$NON-NLS-1$
+
+	private Perf() {
+	}
+
+	/**
+	 * @param name the name of a code path
+	 * @return a new timer, included in {@link #report()}
+	 */
+	public static PerfTimer timer(String name) {
+		PerfTimer timer = new PerfTimer(name);
+		TIMERS.add(timer);
+		return timer;
+	}
+
+	/**
+	 * @param name the name of the counter
+	 * @return a new counter, included in {@link #report()}
+	 */
+	public static PerfCounter counter(String name) {
+		PerfCounter counter = new PerfCounter(name);
+		COUNTERS.add(counter);
+		return counter;
+	}
+
+	/**
+	 * @return true if timers and counters are recording
+	 */
+	public static boolean isEnabled() {
+		return enabled;
+	}
+
+	/**
+	 * @param enabled true to start recording, false to stop
+	 */
+	public static void setEnabled(boolean enabled) {
+		Perf.enabled = enabled;
+	}
+
+	/**
+	 * @return all timers
+	 */
+	public static List<PerfTimer> getTimers() {
+		return Collections.unmodifiableList(new ArrayList<PerfTimer>(TIMERS));
+	}
+
+	/**
+	 * @return all counters
+	 */
+	public static List<PerfCounter> getCounters() {
+		return Collections.unmodifiableList(new ArrayList<PerfCounter>(COUNTERS));
+	}
+
+	/**
+	 * Forget everything recorded.
+	 */
+	public static void reset() {
+		for (PerfTimer timer : TIMERS) {
+			timer.reset();
+		}
+		for (PerfCounter counter : COUNTERS) {
+			counter.reset();
+		}
+	}
+
+	/**
+	 * @return one line per timer and counter, with times in milliseconds
+	 */
+	public static String report() {
+		StringBuilder sb = new StringBuilder();
+		for (PerfTimer timer : TIMERS) {
+			timer.report(sb);
+		}
+		for (PerfCounter counter : COUNTERS) {
+			counter.report(sb);
+		}
+		return sb.toString();
+	}
+}
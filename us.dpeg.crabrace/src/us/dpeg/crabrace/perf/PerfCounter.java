@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Lock-free event counter.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.perf;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Counts events, or sums amounts such as characters copied. Nothing is
+ * counted while {@link Perf} is disabled.
+ *
+ * @author dpurnhagen
+ */
+public final class PerfCounter {
+	private final String name;
+	private final AtomicLong value = new AtomicLong();
+
+	/**
+	 * @param name the name of the counter
+	 */
+	PerfCounter(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name of the counter
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * Count one event.
+	 */
+	public void increment() {
+		if (Perf.isEnabled()) {
+			value.incrementAndGet();
+		}
+	}
+
+	/**
+	 * @param amount the amount to add
+	 */
+	public void add(long amount) {
+		if (Perf.isEnabled()) {
+			value.addAndGet(amount);
+		}
+	}
+
+	/**
+	 * @return the count
+	 */
+	public long get() {
+		return value.get();
+	}
+
+	/**
+	 * Set the count back to 0.
+	 */
+	public void reset() {
+		value.set(0);
+	}
+
+	void report(StringBuilder sb) {
+		sb.append(name).append(": ").append(get()).append('\n'); //$NON-NLS-1$
+	}
+}
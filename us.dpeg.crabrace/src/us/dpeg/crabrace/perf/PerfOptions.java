@@ -0,0 +1,83 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Switches the performance timers and the UI watchdog from the tracing
+ *     options.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.perf;
+
+import org.eclipse.osgi.service.debug.DebugOptions;
+import org.eclipse.osgi.service.debug.DebugOptionsListener;
+import org.eclipse.osgi.service.debug.DebugTrace;
+
+import us.dpeg.crabrace.Activator;
+
+/**
+ * Turns {@link Perf} on and off as the {@code us.dpeg.crabrace/debug} and
+ * {@code us.dpeg.crabrace/perf} tracing options change, either at launch
+ * or on the Tracing tab of the launch configuration, and writes
+ * {@link Perf#report()} to the trace when recording stops. Likewise the
+ * {@code us.dpeg.crabrace/watchdog} option starts and stops the
+ * {@link UiWatchdog}, with the stall threshold in milliseconds from
+ * {@code us.dpeg.crabrace/watchdog/threshold}.
+ *
+ * @author dpurnhagen
+ */
+public class PerfOptions implements DebugOptionsListener {
+	/** The option that switches recording */
+	public static final String OPTION_PERF = "/perf"; //$NON-NLS-1$
+	/** The option that starts the watchdog */
+	public static final String OPTION_WATCHDOG = "/watchdog"; //$NON-NLS-1$
+	/** The stall threshold of the watchdog in milliseconds */
+	public static final String OPTION_WATCHDOG_THRESHOLD = "/watchdog/threshold"; //$NON-NLS-1$
+	private static final String OPTION_DEBUG = "/debug"; //$NON-NLS-1$
+
+	private final UiWatchdog watchdog;
+	private volatile DebugTrace trace;
+
+	/**
+	 * @param watchdog the watchdog to switch, or null if there is no UI
+	 */
+	public PerfOptions(UiWatchdog watchdog) {
+		this.watchdog = watchdog;
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.osgi.service.debug.DebugOptionsListener#optionsChanged(org.eclipse.osgi.service.debug.DebugOptions)
+	 */
+	public void optionsChanged(DebugOptions options) {
+		trace = options.newDebugTrace(Activator.PLUGIN_ID);
+		boolean debug = options.getBooleanOption(Activator.PLUGIN_ID + OPTION_DEBUG, false);
+		boolean enable = debug && options.getBooleanOption(Activator.PLUGIN_ID + OPTION_PERF, false);
+		if (Perf.isEnabled() && !enable) {
+			dump();
+		}
+		Perf.setEnabled(enable);
+		if (watchdog != null) {
+			watchdog.setThreshold(options.getIntegerOption(Activator.PLUGIN_ID + OPTION_WATCHDOG_THRESHOLD,
+					(int) UiWatchdog.DEFAULT_THRESHOLD));
+			if (debug && options.getBooleanOption(Activator.PLUGIN_ID + OPTION_WATCHDOG, false)) {
+				watchdog.start();
+			} else {
+				watchdog.stop();
+			}
+		}
+	}
+
+	/**
+	 * Write the report to the trace, if anything was recorded.
+	 */
+	public void dump() {
+		DebugTrace trace = this.trace;
+		if (trace != null && Perf.isEnabled()) {
+			trace.trace(OPTION_PERF, '\n' + Perf.report());
+		}
+	}
+}
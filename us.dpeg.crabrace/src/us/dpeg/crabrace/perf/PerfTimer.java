@@ -0,0 +1,186 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Lock-free latency histogram of one instrumented code path.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.perf;
+
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Counts the calls of one code path and keeps a histogram of how long
+ * they took. Bucket <i>n</i> holds durations from 2<sup>n</sup> up to
+ * 2<sup>n+1</sup> nanoseconds, so percentiles are exact to within a factor
+ * of two, which is enough to tell a stall from a hiccup.
+ * <p>
+ * Instrumented code brackets the path with {@link #start()} and
+ * {@link #stop(long)}. While {@link Perf} is disabled, {@code start}
+ * returns 0 after one volatile read, and {@code stop} returns at once.
+ * Recording is lock-free and may happen on any thread.
+ *
+ * @author dpurnhagen
+ */
+public final class PerfTimer {
+	private static final int BUCKETS = 64;
+
+	private final String name;
+	private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+	private final AtomicLong count = new AtomicLong();
+	private final AtomicLong total = new AtomicLong();
+	private final AtomicLong max = new AtomicLong();
+
+	/**
+	 * @param name the name of the code path
+	 */
+	PerfTimer(String name) {
+		this.name = name;
+	}
+
+	/**
+	 * @return the name of the code path
+	 */
+	public String getName() {
+		return name;
+	}
+
+	/**
+	 * @return the start time to pass to {@link #stop(long)}, or 0 if
+	 *         timing is off
+	 */
+	public long start() {
+		return Perf.isEnabled() ? System.nanoTime() : 0;
+	}
+
+	/**
+	 * Record the time since a {@link #start()}.
+	 *
+	 * @param start the value returned by {@code start}
+	 */
+	public void stop(long start) {
+		if (start != 0) {
+			record(System.nanoTime() - start);
+		}
+	}
+
+	/**
+	 * @param nanos a duration to record
+	 */
+	public void record(long nanos) {
+		if (nanos < 0) {
+			nanos = 0;
+		}
+		buckets.incrementAndGet(bucket(nanos));
+		count.incrementAndGet();
+		total.addAndGet(nanos);
+		long previous = max.get();
+		while (nanos > previous && !max.compareAndSet(previous, nanos)) {
+			previous = max.get();
+		}
+	}
+
+	private static int bucket(long nanos) {
+		return (nanos == 0) ? 0 : 63 - Long.numberOfLeadingZeros(nanos);
+	}
+
+	/**
+	 * @return the number of recorded calls
+	 */
+	public long getCount() {
+		return count.get();
+	}
+
+	/**
+	 * @return the total time of the recorded calls in nanoseconds
+	 */
+	public long getTotalNanos() {
+		return total.get();
+	}
+
+	/**
+	 * @return the longest recorded call in nanoseconds
+	 */
+	public long getMaxNanos() {
+		return max.get();
+	}
+
+	/**
+	 * @param percentile from 0 to 100
+	 * @return the upper bound of the bucket holding the percentile, in
+	 *         nanoseconds, or 0 if nothing was recorded
+	 */
+	public long getPercentileNanos(double percentile) {
+		long[] counts = new long[BUCKETS];
+		long n = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+			n += counts[i];
+		}
+		if (n == 0) {
+			return 0;
+		}
+		long rank = (long) Math.ceil(n * percentile / 100);
+		long seen = 0;
+		for (int i = 0; i < BUCKETS; i++) {
+			seen += counts[i];
+			if (seen >= rank && counts[i] > 0) {
+				// no bucket can exceed the largest value recorded
+				return Math.min((i >= 62) ? Long.MAX_VALUE : (2L << i) - 1, max.get());
+			}
+		}
+		return max.get();
+	}
+
+	/**
+	 * @return the number of recorded calls in each bucket
+	 */
+	public long[] getBuckets() {
+		long[] counts = new long[BUCKETS];
+		for (int i = 0; i < BUCKETS; i++) {
+			counts[i] = buckets.get(i);
+		}
+		return counts;
+	}
+
+	/**
+	 * Forget everything recorded.
+	 */
+	public void reset() {
+		for (int i = 0; i < BUCKETS; i++) {
+			buckets.set(i, 0);
+		}
+		count.set(0);
+		total.set(0);
+		max.set(0);
+	}
+
+	/**
+	 * Append a one-line summary, with times in milliseconds.
+	 *
+	 * @param sb the buffer
+	 */
+	void report(StringBuilder sb) {
+		long n = getCount();
+		sb.append(name).append(": count=").append(n); //$NON-NLS-1$
+		if (n > 0) {
+			sb.append(" mean=").append(millis(getTotalNanos() / n)); //$NON-NLS-1$
+			sb.append(" p50=").append(millis(getPercentileNanos(50))); //$NON-NLS-1$
+			sb.append(" p90=").append(millis(getPercentileNanos(90))); //$NON-NLS-1$
+			sb.append(" p99=").append(millis(getPercentileNanos(99))); //$NON-NLS-1$
+			sb.append(" max=").append(millis(getMaxNanos())); //$NON-NLS-1$
+		}
+		sb.append('\n');
+	}
+
+	private static String millis(long nanos) {
+		return String.format(Locale.ROOT, "%.3f", Double.valueOf(nanos / 1e6)); //$NON-NLS-1$
+	}
+}
@@ -0,0 +1,276 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Watchdog that logs where the UI thread stalls in crabrace code.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.perf;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.swt.SWTException;
+import org.eclipse.swt.widgets.Display;
+
+import us.dpeg.crabrace.Activator;
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Notices when the UI thread stops answering for longer than a threshold
+ * while running the code of this plug-in, and logs where it was.
+ * <p>
+ * A daemon thread posts a heartbeat to the display once per threshold.
+ * If the heartbeat is not run within the threshold, the UI thread is
+ * stalled, and its stack is sampled every tenth of the threshold until
+ * it answers. Stalls with no sample in a {@code us.dpeg.crabrace} frame
+ * are someone else's and are ignored. For the others a warning is logged,
+ * counting the samples by the innermost crabrace frame and carrying the
+ * most frequent stack as its exception, so the Error Log shows the
+ * blocking code without a profiler.
+ * <p>
+ * The watchdog is started and stopped by {@link PerfOptions}, from the
+ * {@code us.dpeg.crabrace/watchdog} tracing options.
+ *
+ * @author dpurnhagen
+ */
+public class UiWatchdog implements Runnable {
+	/** The default stall threshold in milliseconds */
+	public static final long DEFAULT_THRESHOLD = 1000;
+	private static final long MIN_THRESHOLD = 50;
+	private static final int MAX_SAMPLES = 200;
+	private static final int MAX_REPORTED_FRAMES = 8;
+	private static final int MAX_STACK_DEPTH = 40;
+	private static final String BUNDLE_PACKAGE = "us.dpeg.crabrace."; //$NON-NLS-1$
+	private static final String WATCHDOG_CLASS = UiWatchdog.class.getName();
+
+	private final Display display;
+	private final Object lock = new Object();
+	private volatile long threshold = DEFAULT_THRESHOLD;
+	private Thread thread;
+	// heartbeats posted and answered, guarded by lock
+	private long posted;
+	private long answered;
+
+	/**
+	 * @param display the display whose thread is watched
+	 */
+	public UiWatchdog(Display display) {
+		this.display = display;
+	}
+
+	/**
+	 * @param threshold the stall threshold in milliseconds
+	 */
+	public void setThreshold(long threshold) {
+		this.threshold = Math.max(MIN_THRESHOLD, threshold);
+	}
+
+	/**
+	 * @return the stall threshold in milliseconds
+	 */
+	public long getThreshold() {
+		return threshold;
+	}
+
+	/**
+	 * Start watching, if not watching already.
+	 */
+	public synchronized void start() {
+		if (thread == null) {
+			thread = new Thread(this, "Crabrace UI watchdog"); //$NON-NLS-1$
+			thread.setDaemon(true);
+			thread.setPriority(Thread.MAX_PRIORITY);
+			thread.start();
+		}
+	}
+
+	/**
+	 * Stop watching. A stall being sampled is not reported.
+	 */
+	public synchronized void stop() {
+		if (thread != null) {
+			thread.interrupt();
+			thread = null;
+		}
+	}
+
+	/**
+	 * @return true while watching
+	 */
+	public synchronized boolean isRunning() {
+		return thread != null;
+	}
+
+	private synchronized boolean isCurrent() {
+		return thread == Thread.currentThread();
+	}
+
+	/* (non-Javadoc)
+	 * @see java.lang.Runnable#run()
+	 */
+	public void run() {
+		Thread uiThread;
+		try {
+			uiThread = display.getThread();
+		} catch (SWTException e) {
+			return;
+		}
+		try {
+			while (isCurrent()) {
+				long sent = System.nanoTime();
+				if (!post()) {
+					return;
+				}
+				long limit = threshold;
+				if (!await(limit)) {
+					List<StackTraceElement[]> samples = sample(uiThread, Math.max(1, limit / 10));
+					long millis = (System.nanoTime() - sent) / 1000000;
+					if (isCurrent()) {
+						report(millis, samples);
+					}
+				}
+				Thread.sleep(limit);
+			}
+		} catch (InterruptedException e) {
+			// stopped
+		}
+	}
+
+	/**
+	 * Post a heartbeat to the UI thread.
+	 *
+	 * @return false if the display is gone
+	 */
+	private boolean post() {
+		final long beat;
+		synchronized (lock) {
+			beat = ++posted;
+		}
+		try {
+			display.asyncExec(new Runnable() {
+				public void run() {
+					synchronized (lock) {
+						answered = beat;
+						lock.notifyAll();
+					}
+				}
+			});
+			return true;
+		} catch (SWTException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @param millis the longest time to wait
+	 * @return true if the last heartbeat was answered in time
+	 */
+	private boolean await(long millis) throws InterruptedException {
+		long deadline = System.nanoTime() + millis * 1000000;
+		synchronized (lock) {
+			while (answered != posted) {
+				long left = (deadline - System.nanoTime()) / 1000000;
+				if (left <= 0) {
+					return false;
+				}
+				lock.wait(left);
+			}
+			return true;
+		}
+	}
+
+	/**
+	 * Sample the stack of the UI thread until it answers the heartbeat.
+	 * Once {@link #MAX_SAMPLES} are taken it is only waited for, so the
+	 * reported duration stays right.
+	 *
+	 * @param uiThread the UI thread
+	 * @param interval the time between samples in milliseconds
+	 * @return the samples
+	 */
+	private List<StackTraceElement[]> sample(Thread uiThread, long interval) throws InterruptedException {
+		List<StackTraceElement[]> samples = new ArrayList<StackTraceElement[]>();
+		do {
+			if (samples.size() < MAX_SAMPLES) {
+				samples.add(uiThread.getStackTrace());
+			}
+		} while (!await(interval) && isCurrent());
+		return samples;
+	}
+
+	/**
+	 * Log the stall, if any sample was in crabrace code.
+	 *
+	 * @param millis how long the UI thread did not answer
+	 * @param samples the stacks sampled meanwhile
+	 */
+	private void report(long millis, List<StackTraceElement[]> samples) {
+		// count the samples by their innermost crabrace frame, most frequent first
+		Map<String, Integer> counts = new LinkedHashMap<String, Integer>();
+		Map<String, StackTraceElement[]> stacks = new LinkedHashMap<String, StackTraceElement[]>();
+		int inBundle = 0;
+		for (StackTraceElement[] stack : samples) {
+			StackTraceElement frame = findBundleFrame(stack);
+			if (frame == null) {
+				continue;
+			}
+			inBundle++;
+			String key = frame.toString();
+			Integer count = counts.get(key);
+			counts.put(key, Integer.valueOf((count == null) ? 1 : count.intValue() + 1));
+			if (count == null) {
+				stacks.put(key, stack);
+			}
+		}
+		if (inBundle == 0) {
+			return;
+		}
+		List<Map.Entry<String, Integer>> entries = new ArrayList<Map.Entry<String, Integer>>(counts.entrySet());
+		Collections.sort(entries, new Comparator<Map.Entry<String, Integer>>() {
+			public int compare(Map.Entry<String, Integer> a, Map.Entry<String, Integer> b) {
+				return b.getValue().compareTo(a.getValue());
+			}
+		});
+		StringBuilder sb = new StringBuilder(NLS.bind(Messages.UiWatchdog_warningStall, new Object[] {
+				Long.valueOf(millis), Integer.valueOf(inBundle), Integer.valueOf(samples.size()) }));
+		for (int i = 0; i < entries.size() && i < MAX_REPORTED_FRAMES; i++) {
+			Map.Entry<String, Integer> entry = entries.get(i);
+			sb.append('\n').append(entry.getValue()).append("\tat ").append(entry.getKey()); //$NON-NLS-1$
+		}
+		StackTraceElement[] stack = stacks.get(entries.get(0).getKey());
+		Throwable trace = new Throwable(Messages.UiWatchdog_stackTrace);
+		trace.setStackTrace(Arrays.copyOf(stack, Math.min(stack.length, MAX_STACK_DEPTH)));
+		Activator activator = Activator.getDefault();
+		if (activator != null) {
+			activator.getLog().log(new Status(IStatus.WARNING, Activator.PLUGIN_ID, sb.toString(), trace));
+		}
+	}
+
+	/**
+	 * @param stack a stack, innermost frame first
+	 * @return the innermost frame in crabrace code, or null if none
+	 */
+	private static StackTraceElement findBundleFrame(StackTraceElement[] stack) {
+		for (StackTraceElement frame : stack) {
+			String className = frame.getClassName();
+			if (className.startsWith(BUNDLE_PACKAGE) && !className.startsWith(WATCHDOG_CLASS)) {
+				return frame;
+			}
+		}
+		return null;
+	}
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Dialog that edits the crab properties of many resources at once.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.jface.dialogs.Dialog;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Control;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Shell;
+
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Edits the crab properties of many resources with the fields of the
+ * property page. Only the properties the user changes are written, to all
+ * resources, by one {@link SavePropertiesJob} that can be cancelled.
+ *
+ * @author dpurnhagen
+ */
+public class BulkPropertiesDialog extends Dialog {
+	private final List<IResource> resources;
+	private CrabPropertyFields fields;
+
+	/**
+	 * @param parentShell the parent shell
+	 * @param resources the resources to edit
+	 */
+	public BulkPropertiesDialog(Shell parentShell, Collection<? extends IResource> resources) {
+		super(parentShell);
+		this.resources = new ArrayList<IResource>(resources);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.jface.window.Window#configureShell(org.eclipse.swt.widgets.Shell)
+	 */
+	@Override
+	protected void configureShell(Shell newShell) {
+		super.configureShell(newShell);
+		newShell.setText(Messages.BulkPropertiesDialog_title);
+	}
+
+	/**
+	 * Create contents of the dialog.
+	 * @param parent
+	 */
+	@Override
+	protected Control createDialogArea(Composite parent) {
+		Composite container = (Composite) super.createDialogArea(parent);
+		Label lblInfo = new Label(container, SWT.WRAP);
+		GridData gdInfo = new GridData(SWT.FILL, SWT.CENTER, true, false);
+		gdInfo.widthHint = convertWidthInCharsToPixels(60);
+		lblInfo.setLayoutData(gdInfo);
+		lblInfo.setText(NLS.bind(Messages.BulkPropertiesDialog_info, Integer.valueOf(resources.size())));
+		fields = new CrabPropertyFields(container);
+		for (CrabProperty<?> property : CrabProperty.values()) {
+			showDefault(property);
+		}
+		return container;
+	}
+
+	private <T> void showDefault(CrabProperty<T> property) {
+		fields.setValue(property, property.getDefault());
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.jface.dialogs.Dialog#okPressed()
+	 */
+	@Override
+	protected void okPressed() {
+		Map<CrabProperty<?>, Object> values = fields.getModifiedValues();
+		if (!values.isEmpty() && !resources.isEmpty()) {
+			new SavePropertiesJob(resources, values).schedule();
+		}
+		super.okPressed();
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.jface.dialogs.Dialog#isResizable()
+	 */
+	@Override
+	protected boolean isResizable() {
+		return true;
+	}
+}
@@ -0,0 +1,71 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Command handler that opens the bulk property editor for the
+ *     selected crabs.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+/**
+ * Opens a {@link BulkPropertiesDialog} on the crab files in the current
+ * selection.
+ *
+ * @author dpurnhagen
+ */
+public class BulkPropertiesHandler extends AbstractHandler {
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.commands.IHandler#execute(org.eclipse.core.commands.ExecutionEvent)
+	 */
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		List<IResource> resources = getCrabs(HandlerUtil.getCurrentSelection(event));
+		if (!resources.isEmpty()) {
+			new BulkPropertiesDialog(HandlerUtil.getActiveShellChecked(event), resources).open();
+		}
+		return null;
+	}
+
+	/**
+	 * @param selection the selection, or null
+	 * @return the crab files in the selection
+	 */
+	static List<IResource> getCrabs(ISelection selection) {
+		List<IResource> resources = new ArrayList<IResource>();
+		if (selection instanceof IStructuredSelection) {
+			Iterator<?> it = ((IStructuredSelection) selection).iterator();
+			while (it.hasNext()) {
+				Object element = it.next();
+				IResource resource = null;
+				if (element instanceof IResource) {
+					resource = (IResource) element;
+				} else if (element instanceof IAdaptable) {
+					resource = (IResource) ((IAdaptable) element).getAdapter(IResource.class);
+				}
+				if (resource != null && resource.getType() == IResource.FILE
+						&& CrabProperty.EXTENSION.equals(resource.getFileExtension())) {
+					resources.add(resource);
+				}
+			}
+		}
+		return resources;
+	}
+}
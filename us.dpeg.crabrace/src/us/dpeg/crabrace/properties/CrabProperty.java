@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Typed schema of the persistent properties of a crab.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.eclipse.core.runtime.QualifiedName;
+
+import us.dpeg.crabrace.Messages;
+
+/**
+ * A persistent property of a crab: its key, its type, its default value
+ * and how it is stored as a string. The key is created once, so reading a
+ * property does not allocate a new {@link QualifiedName} each time.
+ * <p>
+ * Read values through a {@link CrabPropertyCache}, which keeps the
+ * decoded values of recently used resources.
+ *
+ * @param <T> the type of the value
+ * @author dpurnhagen
+ */
+public abstract class CrabProperty<T> {
+	/** Whether the crab is extra nimble. */
+	public static final CrabProperty<Boolean> AGILITY = new CrabProperty<Boolean>(0, "AGILITY", //$NON-NLS-1$
+			Boolean.valueOf(Messages.CrabraceProperties_valueAgilityDefault)) {
+		@Override
+		protected Boolean decode(String value) {
+			return Boolean.valueOf(value);
+		}
+	};
+
+	/** The looks factor, from 1 to 10. */
+	public static final CrabProperty<Integer> LOOKS = new CrabProperty<Integer>(1, "LOOKS", //$NON-NLS-1$
+			Integer.valueOf(Messages.CrabraceProperties_valueLooksDefault)) {
+		@Override
+		protected Integer decode(String value) {
+			return Integer.valueOf(Math.max(LOOKS_MIN, Math.min(LOOKS_MAX, Integer.parseInt(value.trim()))));
+		}
+	};
+
+	/** The name of the owner. */
+	public static final CrabProperty<String> OWNER = new CrabProperty<String>(2, "OWNER", //$NON-NLS-1$
+			Messages.CrabraceProperties_valueOwnerDefault) {
+		@Override
+		protected String decode(String value) {
+			return value;
+		}
+	};
+
+	/** The lowest looks factor. */
+	public static final int LOOKS_MIN = 1;
+	/** The highest looks factor. */
+	public static final int LOOKS_MAX = 10;
+	/** The extension of crab files, the resources that have these properties. */
+	public static final String EXTENSION = "crabrace"; //$NON-NLS-1$
+
+	private static final List<CrabProperty<?>> VALUES = Collections.unmodifiableList(
+			Arrays.<CrabProperty<?>> asList(AGILITY, LOOKS, OWNER));
+
+	private final int ordinal;
+	private final QualifiedName name;
+	private final T defaultValue;
+
+	private CrabProperty(int ordinal, String localName, T defaultValue) {
+		this.ordinal = ordinal;
+		this.name = new QualifiedName("", localName); //$NON-NLS-1$
+		this.defaultValue = defaultValue;
+	}
+
+	/**
+	 * @return all the properties, in order
+	 */
+	public static List<CrabProperty<?>> values() {
+		return VALUES;
+	}
+
+	/**
+	 * @param localName the local name of the key of a property
+	 * @return the property, or null if there is none with the name
+	 */
+	public static CrabProperty<?> forName(String localName) {
+		for (CrabProperty<?> property : VALUES) {
+			if (property.name.getLocalName().equals(localName)) {
+				return property;
+			}
+		}
+		return null;
+	}
+
+	/**
+	 * @return the position of the property in {@link #values()}
+	 */
+	public int ordinal() {
+		return ordinal;
+	}
+
+	/**
+	 * @return the key of the property in the resource property store
+	 */
+	public QualifiedName getName() {
+		return name;
+	}
+
+	/**
+	 * @return the value of a resource without the property
+	 */
+	public T getDefault() {
+		return defaultValue;
+	}
+
+	/**
+	 * Convert a stored string to a value.
+	 *
+	 * @param value the stored string, or null
+	 * @return the value, or the default if the string is missing or cannot
+	 *         be read
+	 */
+	public T parse(String value) {
+		if (value == null) {
+			return defaultValue;
+		}
+		try {
+			return decode(value);
+		} catch (IllegalArgumentException e) {
+			return defaultValue;
+		}
+	}
+
+	/**
+	 * Convert a value to the string to store.
+	 *
+	 * @param value the value, or null to remove the property
+	 * @return the string, or null
+	 */
+	public String format(T value) {
+		return (value != null) ? value.toString() : null;
+	}
+
+	/**
+	 * Convert a value of unknown type to the string to store.
+	 *
+	 * @param value the value, which must be of the type of the property
+	 * @return the string, or null
+	 * @throws ClassCastException if the value is of another type
+	 */
+	public String formatObject(Object value) {
+		return format(cast(value));
+	}
+
+	/**
+	 * @param value a value of this property
+	 * @return the value with the type of the property
+	 * @throws ClassCastException if the value is of another type
+	 */
+	@SuppressWarnings("unchecked")
+	T cast(Object value) {
+		if (value != null && value.getClass() != defaultValue.getClass()) {
+			throw new ClassCastException(value.getClass().getName());
+		}
+		return (T) value;
+	}
+
+	/**
+	 * Convert a stored string to a value.
+	 *
+	 * @param value the stored string, never null
+	 * @return the value
+	 * @throws IllegalArgumentException if the string cannot be read
+	 */
+	protected abstract T decode(String value);
+
+	/* (non-Javadoc)
+	 * @see java.lang.Object#toString()
+	 */
+	@Override
+	public String toString() {
+		return name.getLocalName();
+	}
+}
@@ -0,0 +1,304 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Read-through cache of the decoded crab properties of resources.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+
+import us.dpeg.crabrace.Activator;
+
+/**
+ * Keeps the decoded {@link CrabProperty} values of the most recently used
+ * resources, so tables and decorators showing thousands of resources do
+ * not go to the property store for every cell. The values are kept in an
+ * {@link ICrabPropertyStore}.
+ * <p>
+ * Values are read through on a miss, and written through by
+ * {@link #set(IResource, CrabProperty, Object)}. Changing a persistent
+ * property does not cause a resource delta, so writers that bypass the
+ * cache must call {@link #invalidate(IResource)}. Both tell the
+ * {@link ICrabPropertyListener}s. As a resource change
+ * listener, the cache forgets resources that are deleted, moved, replaced
+ * or added, and the resources of projects that are closed or deleted.
+ * <p>
+ * The cache is thread-safe. It is owned by the {@link Activator}.
+ *
+ * @author dpurnhagen
+ */
+public class CrabPropertyCache implements IResourceChangeListener {
+	/** The number of resources kept by default. */
+	public static final int DEFAULT_LIMIT = 10000;
+
+	private static final Object UNLOADED = new Object();
+	private static final int FORGET_FLAGS = IResourceDelta.MOVED_FROM | IResourceDelta.MOVED_TO
+			| IResourceDelta.REPLACED | IResourceDelta.TYPE | IResourceDelta.OPEN;
+
+	private final ICrabPropertyStore store;
+	private final int limit;
+	private final Map<IResource, Object[]> entries;
+	private final CopyOnWriteArrayList<ICrabPropertyListener> listeners = new CopyOnWriteArrayList<ICrabPropertyListener>();
+	private int hits;
+	private int misses;
+	// bumped whenever values are dropped, so a slow read cannot put back a
+	// value that was invalidated while it ran
+	private int generation;
+
+	public CrabPropertyCache() {
+		this(new PersistentPropertyStore(), DEFAULT_LIMIT);
+	}
+
+	/**
+	 * @param store the store to read and write through
+	 */
+	public CrabPropertyCache(ICrabPropertyStore store) {
+		this(store, DEFAULT_LIMIT);
+	}
+
+	/**
+	 * @param store the store to read and write through
+	 * @param limit the number of resources to keep
+	 */
+	public CrabPropertyCache(ICrabPropertyStore store, final int limit) {
+		this.store = store;
+		this.limit = limit;
+		// access order, so the least recently used resource goes first
+		this.entries = new LinkedHashMap<IResource, Object[]>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<IResource, Object[]> eldest) {
+				return size() > CrabPropertyCache.this.limit;
+			}
+		};
+	}
+
+	/**
+	 * @return the store the cache reads and writes through
+	 */
+	public ICrabPropertyStore getStore() {
+		return store;
+	}
+
+	/**
+	 * Get a property of a resource, from the cache if possible.
+	 *
+	 * @param resource the resource
+	 * @param property the property
+	 * @return the value, or the default of the property if the resource has
+	 *         no value or it cannot be read
+	 */
+	public <T> T get(IResource resource, CrabProperty<T> property) {
+		int index = property.ordinal();
+		int readGeneration;
+		synchronized (entries) {
+			Object[] values = entries.get(resource);
+			if (values != null && values[index] != UNLOADED) {
+				hits++;
+				return property.cast(values[index]);
+			}
+			misses++;
+			readGeneration = generation;
+		}
+		// read outside the lock, the property store may be slow
+		T value;
+		try {
+			value = property.parse(store.getValue(resource, property));
+		} catch (CoreException e) {
+			// the resource does not exist or is not accessible; do not cache
+			return property.getDefault();
+		}
+		synchronized (entries) {
+			if (readGeneration == generation) {
+				put(resource, property, value);
+			}
+		}
+		return value;
+	}
+
+	/**
+	 * Write a property of a resource through the cache.
+	 *
+	 * @param resource the resource
+	 * @param property the property
+	 * @param value the value, or null to remove the property
+	 * @throws CoreException if the property store cannot be written
+	 */
+	public <T> void set(IResource resource, CrabProperty<T> property, T value) throws CoreException {
+		try {
+			store.setValue(resource, property, property.format(value));
+		} catch (CoreException e) {
+			invalidate(resource);
+			throw e;
+		}
+		synchronized (entries) {
+			generation++;
+			put(resource, property, (value != null) ? value : property.getDefault());
+		}
+		fireChanged(resource);
+	}
+
+	private void put(IResource resource, CrabProperty<?> property, Object value) {
+		Object[] values = entries.get(resource);
+		if (values == null) {
+			values = new Object[CrabProperty.values().size()];
+			for (int i = 0; i < values.length; i++) {
+				values[i] = UNLOADED;
+			}
+			entries.put(resource, values);
+		}
+		values[property.ordinal()] = value;
+	}
+
+	/**
+	 * Forget the values of a resource, after its properties were written
+	 * without going through the cache.
+	 *
+	 * @param resource the resource
+	 */
+	public void invalidate(IResource resource) {
+		forget(resource);
+		fireChanged(resource);
+	}
+
+	private void forget(IResource resource) {
+		synchronized (entries) {
+			generation++;
+			entries.remove(resource);
+		}
+	}
+
+	private void fireChanged(IResource resource) {
+		for (ICrabPropertyListener listener : listeners) {
+			listener.propertiesChanged(resource);
+		}
+	}
+
+	/**
+	 * @param listener the listener to tell about writes
+	 */
+	public void addPropertyListener(ICrabPropertyListener listener) {
+		listeners.addIfAbsent(listener);
+	}
+
+	/**
+	 * @param listener the listener to remove
+	 */
+	public void removePropertyListener(ICrabPropertyListener listener) {
+		listeners.remove(listener);
+	}
+
+	/**
+	 * Forget the values of a resource and everything below it, after they
+	 * were written without going through the cache.
+	 *
+	 * @param resource the resource
+	 */
+	public void invalidateAll(IResource resource) {
+		forgetAll(resource);
+		fireChanged(resource);
+	}
+
+	private void forgetAll(IResource resource) {
+		IPath path = resource.getFullPath();
+		synchronized (entries) {
+			generation++;
+			Iterator<IResource> it = entries.keySet().iterator();
+			while (it.hasNext()) {
+				if (path.isPrefixOf(it.next().getFullPath())) {
+					it.remove();
+				}
+			}
+		}
+	}
+
+	/**
+	 * Forget all values.
+	 */
+	public void clear() {
+		synchronized (entries) {
+			generation++;
+			entries.clear();
+		}
+	}
+
+	/**
+	 * @return the number of resources in the cache
+	 */
+	public int size() {
+		synchronized (entries) {
+			return entries.size();
+		}
+	}
+
+	/**
+	 * @return the number of reads answered from the cache
+	 */
+	public int getHits() {
+		synchronized (entries) {
+			return hits;
+		}
+	}
+
+	/**
+	 * @return the number of reads that went to the property store
+	 */
+	public int getMisses() {
+		synchronized (entries) {
+			return misses;
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.IResourceChangeListener#resourceChanged(org.eclipse.core.resources.IResourceChangeEvent)
+	 */
+	public void resourceChanged(IResourceChangeEvent event) {
+		switch (event.getType()) {
+		case IResourceChangeEvent.PRE_CLOSE:
+		case IResourceChangeEvent.PRE_DELETE:
+			if (event.getResource() != null) {
+				forgetAll(event.getResource());
+			}
+			break;
+		case IResourceChangeEvent.POST_CHANGE:
+			if (event.getDelta() != null && size() > 0) {
+				try {
+					event.getDelta().accept(new IResourceDeltaVisitor() {
+						public boolean visit(IResourceDelta delta) {
+							if (delta.getKind() != IResourceDelta.CHANGED
+									|| (delta.getFlags() & FORGET_FLAGS) != 0) {
+								forget(delta.getResource());
+							}
+							return true;
+						}
+					});
+				} catch (CoreException e) {
+					Activator.getDefault().getLog().log(e.getStatus());
+					clear();
+				}
+			}
+			break;
+		default:
+			break;
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Editor fields for the crab properties, shared by the property page
+ *     and the bulk editor.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.jface.bindings.keys.KeyStroke;
+import org.eclipse.jface.fieldassist.ContentProposalAdapter;
+import org.eclipse.jface.fieldassist.ControlDecoration;
+import org.eclipse.jface.fieldassist.FieldDecorationRegistry;
+import org.eclipse.jface.fieldassist.TextContentAdapter;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.swt.SWT;
+import org.eclipse.swt.events.ModifyEvent;
+import org.eclipse.swt.events.ModifyListener;
+import org.eclipse.swt.events.SelectionAdapter;
+import org.eclipse.swt.events.SelectionEvent;
+import org.eclipse.swt.layout.GridData;
+import org.eclipse.swt.layout.GridLayout;
+import org.eclipse.swt.widgets.Button;
+import org.eclipse.swt.widgets.Composite;
+import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Scale;
+import org.eclipse.swt.widgets.Text;
+
+import us.dpeg.crabrace.Messages;
+import us.dpeg.crabrace.controls.ComboComposites;
+import us.dpeg.crabrace.dialogs.CopyableDialog;
+
+/**
+ * The controls editing the {@link CrabProperty} values, one panel per
+ * property in a {@link ComboComposites}.
+ * <p>
+ * The fields remember which properties the user changed since the values
+ * were last set, so an editor can write only those, for example to many
+ * resources at once.
+ *
+ * @author dpurnhagen
+ */
+class CrabPropertyFields {
+	private static final String AGILITY_TITLE = Messages.CrabraceProperties_labelExtraNimble;
+	private static final String AGILITY_KEY = "Agility"; //$NON-NLS-1$
+	private static final String LOOKS_TITLE = Messages.CrabraceProperties_labelLooksFactor;
+	private static final String LOOKS_KEY = "Looks"; //$NON-NLS-1$
+	private static final String OWNER_TITLE = Messages.CrabraceProperties_labelOwner;
+	private static final String OWNER_KEY = "Owner"; //$NON-NLS-1$
+	private static final String OWNER_BUTTON = Messages.CrabraceProperties_labelInformation;
+
+	private final ComboComposites cc;
+	private Text txtOwner;
+	private Button btnNimble;
+	private Scale scaleLooks;
+	private final boolean[] modified = new boolean[CrabProperty.values().size()];
+	private boolean updating;
+
+	/**
+	 * @param parent the parent container
+	 */
+	CrabPropertyFields(Composite parent) {
+		cc = new ComboComposites(parent);
+		cc.setLayoutData(new GridData(SWT.FILL, SWT.FILL, true, true));
+
+		Composite cAgility = cc.getComposite(AGILITY_KEY);
+		Composite cLooks = cc.getComposite(LOOKS_KEY);
+		Composite cOwner = cc.getComposite(OWNER_KEY);
+
+		cAgility.setLayout(new GridLayout(1, false));
+		cLooks.setLayout(new GridLayout(3, false));
+		cOwner.setLayout(new GridLayout(2, false));
+
+		// Button for agility
+		btnNimble = new Button(cAgility, SWT.CHECK);
+		btnNimble.setLayoutData(new GridData(SWT.BEGINNING, SWT.CENTER, false, false));
+		btnNimble.setText(AGILITY_TITLE);
+
+		// Label for looks field
+		Label lblLooks = new Label(cLooks, SWT.NONE);
+		lblLooks.setLayoutData(new GridData(SWT.BEGINNING, SWT.CENTER, false, false, 3, 1));
+		lblLooks.setText(LOOKS_TITLE);
+
+		// Slider for looks field
+		Label lblUgly = new Label(cLooks, SWT.None);
+		lblUgly.setText(Messages.CrabraceProperties_labelUgly);
+		scaleLooks = new Scale(cLooks, SWT.HORIZONTAL);
+		scaleLooks.setLayoutData(new GridData(SWT.FILL, SWT.CENTER, true, false));
+		scaleLooks.setMinimum(CrabProperty.LOOKS_MIN);
+		scaleLooks.setMaximum(CrabProperty.LOOKS_MAX);
+		scaleLooks.setIncrement(1);
+		scaleLooks.setSelection(CrabProperty.LOOKS.getDefault().intValue());
+		Label lblSexy = new Label(cLooks, SWT.None);
+		lblSexy.setText(Messages.CrabraceProperties_labelSexy);
+
+		// Label for owner field
+		Label lblOwner = new Label(cOwner, SWT.NONE);
+		lblOwner.setLayoutData(new GridData(SWT.BEGINNING, SWT.CENTER, false, false));
+		lblOwner.setText(OWNER_TITLE);
+
+		// Owner text field
+		txtOwner = new Text(cOwner, SWT.SINGLE | SWT.BORDER);
+		//gdTxtOwner.widthHint = convertWidthInCharsToPixels(50);
+		GridData gdTxtOwner = new GridData(SWT.FILL, SWT.CENTER, true, false);
+		gdTxtOwner.horizontalIndent = FieldDecorationRegistry.getDefault().getMaximumDecorationWidth();
+		txtOwner.setLayoutData(gdTxtOwner);
+		addOwnerAssist();
+
+		// Blank label to skip a cell
+		new Label(cOwner, SWT.NONE);
+
+		// Button to test CopyableDialog
+		Button btnInfo = new Button(cOwner, SWT.PUSH);
+		btnInfo.setLayoutData(new GridData(SWT.RIGHT, SWT.CENTER, false, false));
+		btnInfo.setText(OWNER_BUTTON);
+		btnInfo.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				final String owner = txtOwner.getText();
+				String message;
+				if (CrabProperty.OWNER.getDefault().equalsIgnoreCase(owner)) {
+					StringBuilder sb = new StringBuilder();
+					sb.append(Messages.CrabraceProperties_info1);
+					sb.append(Messages.CrabraceProperties_info2);
+					sb.append(Messages.CrabraceProperties_info3);
+					sb.append(Messages.CrabraceProperties_info4);
+					message = sb.toString();
+				} else {
+					message = Messages.CrabraceProperties_info5 + owner + "\n"; //$NON-NLS-2$
+				}
+				new CopyableDialog(
+						cc.getShell(),
+						Messages.CrabraceProperties_titleOwnerInformation,
+						message,
+						true,
+						true).open();
+			}
+		});
+
+		// Track the fields the user changes
+		btnNimble.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				markModified(CrabProperty.AGILITY);
+			}
+		});
+		scaleLooks.addSelectionListener(new SelectionAdapter() {
+			@Override
+			public void widgetSelected(SelectionEvent e) {
+				markModified(CrabProperty.LOOKS);
+			}
+		});
+		txtOwner.addModifyListener(new ModifyListener() {
+			public void modifyText(ModifyEvent e) {
+				markModified(CrabProperty.OWNER);
+			}
+		});
+
+		cc.setSelection(AGILITY_KEY);
+	}
+
+	/**
+	 * Propose the owners of the workspace in the owner field, on Ctrl+Space.
+	 */
+	private void addOwnerAssist() {
+		KeyStroke trigger = KeyStroke.getInstance(SWT.MOD1, ' ');
+		ContentProposalAdapter assist = new ContentProposalAdapter(txtOwner, new TextContentAdapter(),
+				new OwnerProposalProvider(), trigger, null);
+		assist.setProposalAcceptanceStyle(ContentProposalAdapter.PROPOSAL_REPLACE);
+		ControlDecoration decoration = new ControlDecoration(txtOwner, SWT.TOP | SWT.LEFT);
+		decoration.setImage(FieldDecorationRegistry.getDefault()
+				.getFieldDecoration(FieldDecorationRegistry.DEC_CONTENT_PROPOSAL).getImage());
+		decoration.setDescriptionText(NLS.bind(Messages.CrabraceProperties_infoOwnerAssist, trigger.format()));
+		decoration.setShowOnlyOnFocus(true);
+	}
+
+	/**
+	 * @return the control holding the fields
+	 */
+	ComboComposites getControl() {
+		return cc;
+	}
+
+	/**
+	 * Enable or disable the editing controls, for example while the values
+	 * are being read.
+	 *
+	 * @param enabled true to allow editing
+	 */
+	void setEnabled(boolean enabled) {
+		btnNimble.setEnabled(enabled);
+		scaleLooks.setEnabled(enabled);
+		txtOwner.setEnabled(enabled);
+	}
+
+	private void markModified(CrabProperty<?> property) {
+		if (!updating) {
+			modified[property.ordinal()] = true;
+		}
+	}
+
+	/**
+	 * Show a value, without marking it modified.
+	 *
+	 * @param property the property
+	 * @param value the value
+	 */
+	<T> void setValue(CrabProperty<T> property, T value) {
+		updating = true;
+		try {
+			if (property == CrabProperty.AGILITY) {
+				btnNimble.setSelection(((Boolean) value).booleanValue());
+			} else if (property == CrabProperty.LOOKS) {
+				scaleLooks.setSelection(((Integer) value).intValue());
+			} else if (property == CrabProperty.OWNER) {
+				txtOwner.setText((String) value);
+			}
+		} finally {
+			updating = false;
+		}
+		modified[property.ordinal()] = false;
+	}
+
+	/**
+	 * @param property the property
+	 * @return the value shown
+	 */
+	Object getValue(CrabProperty<?> property) {
+		if (property == CrabProperty.AGILITY) {
+			return Boolean.valueOf(btnNimble.getSelection());
+		} else if (property == CrabProperty.LOOKS) {
+			return Integer.valueOf(scaleLooks.getSelection());
+		} else {
+			return txtOwner.getText();
+		}
+	}
+
+	/**
+	 * Show the default values, marking every property modified.
+	 */
+	void setDefaults() {
+		for (CrabProperty<?> property : CrabProperty.values()) {
+			setDefault(property);
+			modified[property.ordinal()] = true;
+		}
+	}
+
+	private <T> void setDefault(CrabProperty<T> property) {
+		setValue(property, property.getDefault());
+	}
+
+	/**
+	 * @param property the property
+	 * @return true if the user changed the property
+	 */
+	boolean isModified(CrabProperty<?> property) {
+		return modified[property.ordinal()];
+	}
+
+	/**
+	 * @return every value shown, in schema order
+	 */
+	Map<CrabProperty<?>, Object> getValues() {
+		Map<CrabProperty<?>, Object> values = new LinkedHashMap<CrabProperty<?>, Object>();
+		for (CrabProperty<?> property : CrabProperty.values()) {
+			values.put(property, getValue(property));
+		}
+		return values;
+	}
+
+	/**
+	 * @return the values the user changed, in schema order
+	 */
+	Map<CrabProperty<?>, Object> getModifiedValues() {
+		Map<CrabProperty<?>, Object> values = new LinkedHashMap<CrabProperty<?>, Object>();
+		for (CrabProperty<?> property : CrabProperty.values()) {
+			if (isModified(property)) {
+				values.put(property, getValue(property));
+			}
+		}
+		return values;
+	}
+}
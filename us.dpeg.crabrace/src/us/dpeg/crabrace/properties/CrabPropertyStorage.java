@@ -0,0 +1,76 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Crab property storage choosing the backend of each project.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Sends the reads and writes of each resource to the store its project
+ * uses: the {@link SidecarPropertyStore} if the project has a sidecar
+ * file, the {@link PersistentPropertyStore} otherwise. A
+ * {@link MigrateStorageJob} moves a project from one to the other.
+ *
+ * @author dpurnhagen
+ */
+public class CrabPropertyStorage implements ICrabPropertyStore {
+	private final PersistentPropertyStore persistentStore;
+	private final SidecarPropertyStore sidecarStore;
+
+	/**
+	 * @param persistentStore the store of projects without a sidecar
+	 * @param sidecarStore the store of projects with a sidecar
+	 */
+	public CrabPropertyStorage(PersistentPropertyStore persistentStore, SidecarPropertyStore sidecarStore) {
+		this.persistentStore = persistentStore;
+		this.sidecarStore = sidecarStore;
+	}
+
+	/**
+	 * @return the store of projects without a sidecar
+	 */
+	public PersistentPropertyStore getPersistentStore() {
+		return persistentStore;
+	}
+
+	/**
+	 * @return the store of projects with a sidecar
+	 */
+	public SidecarPropertyStore getSidecarStore() {
+		return sidecarStore;
+	}
+
+	/**
+	 * @param resource a resource
+	 * @return the store that keeps the properties of the resource
+	 */
+	public ICrabPropertyStore getStore(IResource resource) {
+		IProject project = resource.getProject();
+		return (project != null && sidecarStore.isEnabled(project)) ? sidecarStore : persistentStore;
+	}
+
+	/* (non-Javadoc)
+	 * @see us.dpeg.crabrace.properties.ICrabPropertyStore#getValue(org.eclipse.core.resources.IResource, us.dpeg.crabrace.properties.CrabProperty)
+	 */
+	public String getValue(IResource resource, CrabProperty<?> property) throws CoreException {
+		return getStore(resource).getValue(resource, property);
+	}
+
+	/* (non-Javadoc)
+	 * @see us.dpeg.crabrace.properties.ICrabPropertyStore#setValue(org.eclipse.core.resources.IResource, us.dpeg.crabrace.properties.CrabProperty, java.lang.String)
+	 */
+	public void setValue(IResource resource, CrabProperty<?> property, String value) throws CoreException {
+		getStore(resource).setValue(resource, property, value);
+	}
+}
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Callback for writes of crab properties.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import org.eclipse.core.resources.IResource;
+
+/**
+ * Told about writes of crab properties through a {@link CrabPropertyCache}.
+ * Writing a persistent property does not cause a resource delta, so this
+ * is the only way to follow property changes.
+ *
+ * @author dpurnhagen
+ */
+public interface ICrabPropertyListener {
+
+	/**
+	 * The properties of a resource were written; if the resource is a
+	 * container, those of any resource below it may have changed. Called in
+	 * the writing
+	 * thread, which may hold a workspace lock, so listeners should only
+	 * note the resource and do any work later.
+	 *
+	 * @param resource the resource
+	 */
+	void propertiesChanged(IResource resource);
+}
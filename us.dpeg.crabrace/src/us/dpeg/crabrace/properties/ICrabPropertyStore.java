@@ -0,0 +1,44 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Storage backend of the crab properties.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Where the {@link CrabProperty} values of resources are kept, as the
+ * strings the properties encode them to. Implementations must be
+ * thread-safe.
+ *
+ * @author dpurnhagen
+ * @see PersistentPropertyStore
+ * @see SidecarPropertyStore
+ */
+public interface ICrabPropertyStore {
+
+	/**
+	 * @param resource the resource
+	 * @param property the property
+	 * @return the stored string, or null if the resource has no value
+	 * @throws CoreException if the store cannot be read
+	 */
+	String getValue(IResource resource, CrabProperty<?> property) throws CoreException;
+
+	/**
+	 * @param resource the resource
+	 * @param property the property
+	 * @param value the string to store, or null to remove the value
+	 * @throws CoreException if the store cannot be written
+	 */
+	void setValue(IResource resource, CrabProperty<?> property, String value) throws CoreException;
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Command handler that moves the crab properties of the selected
+ *     projects to another store.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import org.eclipse.core.commands.AbstractHandler;
+import org.eclipse.core.commands.ExecutionEvent;
+import org.eclipse.core.commands.ExecutionException;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.core.runtime.IConfigurationElement;
+import org.eclipse.core.runtime.IExecutableExtension;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.ui.handlers.HandlerUtil;
+
+/**
+ * Schedules a {@link MigrateStorageJob} for each selected project. The
+ * class is registered as {@code MigrateStorageHandler:sidecar} to move
+ * projects to a sidecar file, and as {@code MigrateStorageHandler:workspace}
+ * to move them back.
+ *
+ * @author dpurnhagen
+ */
+public class MigrateStorageHandler extends AbstractHandler implements IExecutableExtension {
+	private static final String SIDECAR = "sidecar"; //$NON-NLS-1$
+
+	private boolean toSidecar = true;
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.runtime.IExecutableExtension#setInitializationData(org.eclipse.core.runtime.IConfigurationElement, java.lang.String, java.lang.Object)
+	 */
+	public void setInitializationData(IConfigurationElement config, String propertyName, Object data) {
+		toSidecar = (data == null) || SIDECAR.equals(data);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.commands.IHandler#execute(org.eclipse.core.commands.ExecutionEvent)
+	 */
+	public Object execute(ExecutionEvent event) throws ExecutionException {
+		for (IProject project : getProjects(HandlerUtil.getCurrentSelection(event))) {
+			new MigrateStorageJob(project, toSidecar).schedule();
+		}
+		return null;
+	}
+
+	private static Set<IProject> getProjects(ISelection selection) {
+		Set<IProject> projects = new LinkedHashSet<IProject>();
+		if (selection instanceof IStructuredSelection) {
+			Iterator<?> it = ((IStructuredSelection) selection).iterator();
+			while (it.hasNext()) {
+				Object element = it.next();
+				IResource resource = null;
+				if (element instanceof IResource) {
+					resource = (IResource) element;
+				} else if (element instanceof IAdaptable) {
+					resource = (IResource) ((IAdaptable) element).getAdapter(IResource.class);
+				}
+				if (resource != null && resource.getType() == IResource.PROJECT) {
+					projects.add((IProject) resource);
+				}
+			}
+		}
+		return projects;
+	}
+}
@@ -0,0 +1,167 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Job that moves the crab properties of a project between stores.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceProxy;
+import org.eclipse.core.resources.IResourceProxyVisitor;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.osgi.util.NLS;
+
+import us.dpeg.crabrace.Activator;
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Moves the crab properties of a project from the persistent property
+ * store to a sidecar file, or back.
+ * <p>
+ * The values are first copied to the new store, then the project is
+ * switched over in one step: by moving the complete sidecar file into
+ * place, or by deleting it. Cancelling before the switch leaves the
+ * project on its old store. Only after the switch are the old values
+ * removed.
+ *
+ * @author dpurnhagen
+ */
+public class MigrateStorageJob extends WorkspaceJob {
+	private final IProject project;
+	private final boolean toSidecar;
+
+	/**
+	 * @param project the project
+	 * @param toSidecar true to move to a sidecar file, false to move back
+	 *            to the persistent property store
+	 */
+	public MigrateStorageJob(IProject project, boolean toSidecar) {
+		super(NLS.bind(toSidecar ? Messages.MigrateStorageJob_jobToSidecar : Messages.MigrateStorageJob_jobToWorkspace,
+				project.getName()));
+		this.project = project;
+		this.toSidecar = toSidecar;
+		setRule(project);
+		setUser(true);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.WorkspaceJob#runInWorkspace(org.eclipse.core.runtime.IProgressMonitor)
+	 */
+	@Override
+	public IStatus runInWorkspace(IProgressMonitor monitor) throws CoreException {
+		CrabPropertyStorage storage = Activator.getDefault().getPropertyStorage();
+		SidecarPropertyStore sidecar = storage.getSidecarStore();
+		if (!project.isAccessible() || sidecar.isEnabled(project) == toSidecar) {
+			return Status.OK_STATUS;
+		}
+		if (SidecarPropertyStore.getFile(project) == null) {
+			return new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+					NLS.bind(Messages.SidecarPropertyStore_errorNoSidecar, project.getFullPath()));
+		}
+		List<IFile> crabs = findCrabs();
+		monitor.beginTask(getName(), 2 * crabs.size() + 1);
+		try {
+			if (toSidecar) {
+				toSidecar(storage, crabs, monitor);
+			} else {
+				toPersistent(storage, crabs, monitor);
+			}
+		} finally {
+			monitor.done();
+			// the values did not change, but where they are read from did
+			Activator.getDefault().getPropertyCache().invalidateAll(project);
+		}
+		return monitor.isCanceled() ? Status.CANCEL_STATUS : Status.OK_STATUS;
+	}
+
+	private void toSidecar(CrabPropertyStorage storage, List<IFile> crabs, IProgressMonitor monitor)
+			throws CoreException {
+		PersistentPropertyStore persistent = storage.getPersistentStore();
+		Map<String, Map<String, String>> values = new HashMap<String, Map<String, String>>();
+		for (IFile crab : crabs) {
+			if (monitor.isCanceled()) {
+				return;
+			}
+			Map<String, String> crabValues = new HashMap<String, String>(4);
+			for (CrabProperty<?> property : CrabProperty.values()) {
+				String value = persistent.getValue(crab, property);
+				if (value != null) {
+					crabValues.put(property.getName().getLocalName(), value);
+				}
+			}
+			if (!crabValues.isEmpty()) {
+				values.put(crab.getProjectRelativePath().toPortableString(), crabValues);
+			}
+			monitor.worked(1);
+		}
+		storage.getSidecarStore().replace(project, values);
+		monitor.worked(1);
+		// past the switch; finish even if cancelled
+		for (IFile crab : crabs) {
+			for (CrabProperty<?> property : CrabProperty.values()) {
+				persistent.setValue(crab, property, null);
+			}
+			monitor.worked(1);
+		}
+	}
+
+	private void toPersistent(CrabPropertyStorage storage, List<IFile> crabs, IProgressMonitor monitor)
+			throws CoreException {
+		PersistentPropertyStore persistent = storage.getPersistentStore();
+		Map<String, Map<String, String>> values = storage.getSidecarStore().getAll(project);
+		for (Map.Entry<String, Map<String, String>> entry : values.entrySet()) {
+			if (monitor.isCanceled()) {
+				return;
+			}
+			IPath path = Path.fromPortableString(entry.getKey());
+			IFile crab = project.getFile(path);
+			if (crab.exists()) {
+				for (Map.Entry<String, String> value : entry.getValue().entrySet()) {
+					CrabProperty<?> property = CrabProperty.forName(value.getKey());
+					if (property != null) {
+						persistent.setValue(crab, property, value.getValue());
+					}
+				}
+			}
+			monitor.worked(1);
+		}
+		storage.getSidecarStore().replace(project, null);
+		monitor.worked(1 + 2 * crabs.size() - values.size());
+	}
+
+	private List<IFile> findCrabs() throws CoreException {
+		final List<IFile> crabs = new ArrayList<IFile>();
+		project.accept(new IResourceProxyVisitor() {
+			public boolean visit(IResourceProxy proxy) {
+				if (proxy.getType() == IResource.FILE) {
+					if (proxy.getName().endsWith('.' + CrabProperty.EXTENSION)) {
+						crabs.add((IFile) proxy.requestResource());
+					}
+					return false;
+				}
+				return true;
+			}
+		}, IResource.NONE);
+		return crabs;
+	}
+}
@@ -0,0 +1,60 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Content assist proposals for the owner field.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import org.eclipse.jface.fieldassist.ContentProposal;
+import org.eclipse.jface.fieldassist.IContentProposal;
+import org.eclipse.jface.fieldassist.IContentProposalProvider;
+
+import us.dpeg.crabrace.Activator;
+import us.dpeg.crabrace.index.CrabIndex;
+import us.dpeg.crabrace.index.OwnerIndex;
+import us.dpeg.crabrace.perf.Perf;
+
+/**
+ * Proposes the owners of the workspace that start with the text before
+ * the cursor, from the {@link OwnerIndex} of the {@link CrabIndex}. The
+ * lookup reads the latest index without locking, so it never waits for
+ * an index update, and proposes nothing while the index is being built.
+ *
+ * @author dpurnhagen
+ */
+class OwnerProposalProvider implements IContentProposalProvider {
+	/** The most owners proposed at once */
+	static final int MAX_PROPOSALS = 50;
+
+	private static final IContentProposal[] NONE = new IContentProposal[0];
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.jface.fieldassist.IContentProposalProvider#getProposals(java.lang.String, int)
+	 */
+	public IContentProposal[] getProposals(String contents, int position) {
+		long start = Perf.OWNER_PROPOSALS.start();
+		try {
+			Activator plugin = Activator.getDefault();
+			CrabIndex index = (plugin != null) ? plugin.getCrabIndex() : null;
+			if (index == null || !index.isReady()) {
+				// the owner index would be stale or empty
+				return NONE;
+			}
+			String[] owners = index.getOwnerIndex().find(contents.substring(0, position), MAX_PROPOSALS);
+			IContentProposal[] proposals = new IContentProposal[owners.length];
+			for (int i = 0; i < owners.length; i++) {
+				proposals[i] = new ContentProposal(owners[i]);
+			}
+			return proposals;
+		} finally {
+			Perf.OWNER_PROPOSALS.stop(start);
+		}
+	}
+}
@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Crab property storage in the Eclipse persistent property store.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.runtime.CoreException;
+
+/**
+ * Keeps crab properties as persistent resource properties, in the
+ * metadata of the workspace. The properties follow a resource when it is
+ * moved, but not when its project is copied outside the workspace.
+ *
+ * @author dpurnhagen
+ */
+public class PersistentPropertyStore implements ICrabPropertyStore {
+
+	/* (non-Javadoc)
+	 * @see us.dpeg.crabrace.properties.ICrabPropertyStore#getValue(org.eclipse.core.resources.IResource, us.dpeg.crabrace.properties.CrabProperty)
+	 */
+	public String getValue(IResource resource, CrabProperty<?> property) throws CoreException {
+		return resource.getPersistentProperty(property.getName());
+	}
+
+	/* (non-Javadoc)
+	 * @see us.dpeg.crabrace.properties.ICrabPropertyStore#setValue(org.eclipse.core.resources.IResource, us.dpeg.crabrace.properties.CrabProperty, java.lang.String)
+	 */
+	public void setValue(IResource resource, CrabProperty<?> property, String value) throws CoreException {
+		resource.setPersistentProperty(property.getName(), value);
+	}
+}
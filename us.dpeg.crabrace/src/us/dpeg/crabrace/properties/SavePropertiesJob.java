@@ -0,0 +1,191 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Job that writes the persistent properties of resources as one
+ *     batched workspace operation.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceRuleFactory;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.resources.WorkspaceJob;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.MultiStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.ISchedulingRule;
+import org.eclipse.core.runtime.jobs.MultiRule;
+import org.eclipse.osgi.util.NLS;
+import org.eclipse.ui.statushandlers.StatusManager;
+
+import us.dpeg.crabrace.Activator;
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Writes a snapshot of property values to one or more resources in the
+ * background.
+ * <p>
+ * All writes run in one workspace operation under the modify rules of the
+ * resources, so they are not interleaved with other changes to them, and
+ * listeners get at most one resource change notification for the whole
+ * run. If any write to a resource fails, the values already written to it
+ * are put back, so no resource ends up half saved, and the returned error
+ * names every resource and value that was not saved, so the user can enter
+ * them again. The other resources are still saved.
+ * <p>
+ * Cancelling stops before the next resource; the resources done so far
+ * keep their new values.
+ *
+ * @author dpurnhagen
+ */
+class SavePropertiesJob extends WorkspaceJob {
+	private final List<IResource> resources;
+	private final Map<CrabProperty<?>, Object> values;
+
+	/**
+	 * @param resource the resource to write to
+	 * @param values the values to write, in order; a null value removes
+	 *            the property
+	 */
+	SavePropertiesJob(IResource resource, Map<CrabProperty<?>, Object> values) {
+		this(Collections.singletonList(resource), values);
+	}
+
+	/**
+	 * @param resources the resources to write to
+	 * @param values the values to write to each resource, in order; a null
+	 *            value removes the property
+	 */
+	SavePropertiesJob(Collection<? extends IResource> resources, Map<CrabProperty<?>, Object> values) {
+		super((resources.size() == 1)
+				? NLS.bind(Messages.CrabraceProperties_jobSave, resources.iterator().next().getName())
+				: NLS.bind(Messages.CrabraceProperties_jobSaveMany, Integer.valueOf(resources.size())));
+		this.resources = new ArrayList<IResource>(resources);
+		this.values = new LinkedHashMap<CrabProperty<?>, Object>(values);
+		IResourceRuleFactory factory = ResourcesPlugin.getWorkspace().getRuleFactory();
+		ISchedulingRule[] rules = new ISchedulingRule[this.resources.size()];
+		for (int i = 0; i < rules.length; i++) {
+			rules[i] = factory.modifyRule(this.resources.get(i));
+		}
+		setRule(MultiRule.combine(rules));
+		setUser(this.resources.size() > 1);
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.WorkspaceJob#runInWorkspace(org.eclipse.core.runtime.IProgressMonitor)
+	 */
+	@Override
+	public IStatus runInWorkspace(IProgressMonitor monitor) {
+		monitor.beginTask(getName(), resources.size());
+		CrabPropertyCache cache = Activator.getDefault().getPropertyCache();
+		MultiStatus errors = null;
+		try {
+			for (IResource resource : resources) {
+				if (monitor.isCanceled()) {
+					return Status.CANCEL_STATUS;
+				}
+				monitor.subTask(resource.getFullPath().toString());
+				try {
+					save(cache, resource);
+				} catch (CoreException e) {
+					if (errors == null) {
+						errors = new MultiStatus(Activator.PLUGIN_ID, IStatus.ERROR, (resources.size() == 1)
+								? NLS.bind(Messages.CrabraceProperties_errorSave, resource.getFullPath())
+								: NLS.bind(Messages.CrabraceProperties_errorSaveMany, Integer.valueOf(resources.size())),
+								null);
+					}
+					errors.add(createError(resource, e));
+				}
+				monitor.worked(1);
+			}
+		} finally {
+			monitor.done();
+		}
+		if (errors == null) {
+			return Status.OK_STATUS;
+		}
+		// the job manager logs the error, and shows it for a user job; show
+		// it for the background save of one resource, since the page is gone
+		if (!isUser()) {
+			StatusManager.getManager().handle(errors, StatusManager.SHOW);
+		}
+		return errors;
+	}
+
+	/**
+	 * Write all values to a resource, or none of them.
+	 *
+	 * @param cache the cache to write through
+	 * @param resource the resource
+	 * @throws CoreException if a value could not be written
+	 */
+	private void save(CrabPropertyCache cache, IResource resource) throws CoreException {
+		ICrabPropertyStore store = cache.getStore();
+		Map<CrabProperty<?>, String> previous = new LinkedHashMap<CrabProperty<?>, String>();
+		try {
+			for (Map.Entry<CrabProperty<?>, Object> entry : values.entrySet()) {
+				previous.put(entry.getKey(), store.getValue(resource, entry.getKey()));
+				write(cache, resource, entry.getKey(), entry.getValue());
+			}
+		} catch (CoreException e) {
+			restore(store, resource, previous);
+			cache.invalidate(resource);
+			throw e;
+		}
+	}
+
+	private static <T> void write(CrabPropertyCache cache, IResource resource, CrabProperty<T> property, Object value)
+			throws CoreException {
+		// through the cache, since the write fires no resource delta
+		cache.set(resource, property, property.cast(value));
+	}
+
+	/**
+	 * Put back the values that were replaced before a write failed.
+	 *
+	 * @param store the store of the resource
+	 * @param resource the resource
+	 * @param previous the replaced values
+	 */
+	private static void restore(ICrabPropertyStore store, IResource resource, Map<CrabProperty<?>, String> previous) {
+		for (Map.Entry<CrabProperty<?>, String> entry : previous.entrySet()) {
+			try {
+				store.setValue(resource, entry.getKey(), entry.getValue());
+			} catch (CoreException e) {
+				Activator.getDefault().getLog().log(e.getStatus());
+			}
+		}
+	}
+
+	/**
+	 * @param resource the resource that was not saved
+	 * @param cause the failed write
+	 * @return an error naming every value that was not saved
+	 */
+	private IStatus createError(IResource resource, CoreException cause) {
+		MultiStatus status = new MultiStatus(Activator.PLUGIN_ID, IStatus.ERROR,
+				resource.getFullPath().toString(), cause);
+		for (Map.Entry<CrabProperty<?>, Object> entry : values.entrySet()) {
+			status.add(new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+					NLS.bind(Messages.CrabraceProperties_errorSaveValue, entry.getKey(), entry.getValue())));
+		}
+		status.add(cause.getStatus());
+		return status;
+	}
+}
@@ -0,0 +1,481 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Append-only binary file of crab property values.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.UTFDataFormatException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+/**
+ * The property values of the resources of one project, in one file.
+ * <p>
+ * The file starts with a magic number and a version, followed by records,
+ * each prefixed with its length. A record sets one value of one resource,
+ * or removes all values of a resource. The file is read once, into a map
+ * of the live values; every change is appended as a new record, so a write
+ * never rewrites the file. A record torn by a crash at the end of the file
+ * is ignored and cut off by the next append. A complete record that cannot
+ * be decoded means the file is corrupt: it is never written, and every
+ * access fails until it is repaired or replaced. When most records are
+ * dead, the file is compacted by writing the live values to a new file and
+ * moving it over the old one.
+ * <p>
+ * Resources are named by their project-relative path, so the file stays
+ * valid when the project is copied or moved. Instances are thread-safe.
+ *
+ * @author dpurnhagen
+ */
+final class Sidecar {
+	private static final int MAGIC = 0x43524253; // CRBS
+	private static final int VERSION = 1;
+	private static final int HEADER_SIZE = 8;
+	private static final byte SET = 1;
+	private static final byte REMOVE = 2;
+	private static final int COMPACT_MIN_RECORDS = 4096;
+
+	private final File file;
+	private Map<String, Map<String, String>> values;
+	private FileChannel channel;
+	// end of the last complete record
+	private long length;
+	private int records;
+	private int live;
+	// checksum of the first length bytes, to recognize our own writes
+	private final CRC32 checksum = new CRC32();
+
+	/**
+	 * @param file the sidecar file, which need not exist yet
+	 */
+	Sidecar(File file) {
+		this.file = file;
+	}
+
+	/**
+	 * @return the sidecar file
+	 */
+	File getFile() {
+		return file;
+	}
+
+	/**
+	 * Tell whether the file is exactly as this instance last read or wrote
+	 * it, by its length and a checksum of its contents. An edit by someone
+	 * else that keeps the length is still noticed.
+	 *
+	 * @return false if the file was changed by someone else, or was never
+	 *         read
+	 */
+	synchronized boolean isCurrent() {
+		if (values == null || !file.isFile() || file.length() != length) {
+			return false;
+		}
+		try {
+			return checksum(file, length) == checksum.getValue();
+		} catch (IOException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * @return the CRC-32 of the first bytes of a file
+	 */
+	private static long checksum(File file, long length) throws IOException {
+		CRC32 crc = new CRC32();
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			long position = 0;
+			while (position < length) {
+				buffer.clear();
+				buffer.limit((int) Math.min(buffer.capacity(), length - position));
+				int read = in.read(buffer, position);
+				if (read < 0) {
+					break;
+				}
+				crc.update(buffer.array(), 0, read);
+				position += read;
+			}
+		}
+		return crc.getValue();
+	}
+
+	/**
+	 * @param path the project-relative path of the resource
+	 * @param name the name of the property
+	 * @return the value, or null
+	 * @throws IOException if the file cannot be read
+	 */
+	synchronized String get(String path, String name) throws IOException {
+		load();
+		Map<String, String> resource = values.get(path);
+		return (resource != null) ? resource.get(name) : null;
+	}
+
+	/**
+	 * @param path the project-relative path of the resource
+	 * @return a copy of the values of the resource, by name, or null if it
+	 *         has none
+	 * @throws IOException if the file cannot be read
+	 */
+	synchronized Map<String, String> get(String path) throws IOException {
+		load();
+		Map<String, String> resource = values.get(path);
+		return (resource != null) ? new HashMap<String, String>(resource) : null;
+	}
+
+	/**
+	 * @return a copy of all values, by path and then by name
+	 * @throws IOException if the file cannot be read
+	 */
+	synchronized Map<String, Map<String, String>> getAll() throws IOException {
+		load();
+		Map<String, Map<String, String>> copy = new HashMap<String, Map<String, String>>();
+		for (Map.Entry<String, Map<String, String>> entry : values.entrySet()) {
+			copy.put(entry.getKey(), new HashMap<String, String>(entry.getValue()));
+		}
+		return copy;
+	}
+
+	/**
+	 * @param path the project-relative path of the resource
+	 * @param name the name of the property
+	 * @param value the value, or null to remove it
+	 * @throws IOException if the file cannot be written
+	 */
+	synchronized void set(String path, String name, String value) throws IOException {
+		load();
+		Map<String, String> resource = values.get(path);
+		String old = (resource != null) ? resource.get(name) : null;
+		if ((value == null) ? old == null : value.equals(old)) {
+			return;
+		}
+		append(encode(SET, path, name, value));
+		apply(SET, path, name, value);
+		compactIfWasteful();
+	}
+
+	/**
+	 * Remove all values of a resource.
+	 *
+	 * @param path the project-relative path of the resource
+	 * @throws IOException if the file cannot be written
+	 */
+	synchronized void remove(String path) throws IOException {
+		load();
+		if (values.containsKey(path)) {
+			append(encode(REMOVE, path, null, null));
+			apply(REMOVE, path, null, null);
+			compactIfWasteful();
+		}
+	}
+
+	/**
+	 * Forget the values read, so the file is read again on the next access.
+	 */
+	synchronized void reset() {
+		close();
+		values = null;
+	}
+
+	/**
+	 * Close the file. It is opened again by the next write.
+	 */
+	synchronized void close() {
+		if (channel != null) {
+			try {
+				channel.close();
+			} catch (IOException e) {
+				// nothing was lost, every append was complete
+			}
+			channel = null;
+		}
+	}
+
+	private void load() throws IOException {
+		if (values != null) {
+			return;
+		}
+		// parse into locals, so a failure leaves nothing half loaded
+		Map<String, Map<String, String>> loaded = new HashMap<String, Map<String, String>>();
+		long end = 0;
+		int count = 0;
+		checksum.reset();
+		if (file.isFile()) {
+			byte[] bytes = readAll();
+			if (bytes.length >= HEADER_SIZE) {
+				ByteBuffer buffer = ByteBuffer.wrap(bytes);
+				if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+					throw new IOException("Unknown sidecar format: " + file); //$NON-NLS-1$
+				}
+				end = HEADER_SIZE;
+				while (buffer.remaining() >= 4) {
+					int start = buffer.position();
+					int recordLength = buffer.getInt();
+					if (recordLength > buffer.remaining() || (recordLength <= 0 && isZero(buffer))) {
+						// torn by a crash; the next append cuts it off
+						break;
+					}
+					if (recordLength <= 0) {
+						throw corrupt(start);
+					}
+					byte[] record = new byte[recordLength];
+					buffer.get(record);
+					try {
+						decode(record, loaded);
+					} catch (EOFException e) {
+						throw corrupt(start);
+					} catch (UTFDataFormatException e) {
+						throw corrupt(start);
+					}
+					count++;
+					end = buffer.position();
+				}
+				checksum.update(bytes, 0, (int) end);
+			}
+		}
+		length = end;
+		records = count;
+		live = 0;
+		for (Map<String, String> resource : loaded.values()) {
+			live += resource.size();
+		}
+		values = loaded;
+	}
+
+	/**
+	 * @return the whole file, read through the channel into the heap, so no
+	 *         mapping keeps the file from being replaced or deleted
+	 */
+	private byte[] readAll() throws IOException {
+		try (FileChannel in = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+			long size = in.size();
+			if (size > Integer.MAX_VALUE) {
+				throw new IOException("Sidecar too large: " + file); //$NON-NLS-1$
+			}
+			ByteBuffer buffer = ByteBuffer.allocate((int) size);
+			while (buffer.hasRemaining() && in.read(buffer) >= 0) {
+				// keep reading
+			}
+			return Arrays.copyOf(buffer.array(), buffer.position());
+		}
+	}
+
+	/**
+	 * @return true if nothing but zeros is left, as after a crash that
+	 *         extended the file without writing it
+	 */
+	private static boolean isZero(ByteBuffer buffer) {
+		for (int i = buffer.position(); i < buffer.limit(); i++) {
+			if (buffer.get(i) != 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	private IOException corrupt(int offset) {
+		return new IOException("Corrupt sidecar record at offset " + offset + ": " + file); //$NON-NLS-1$ //$NON-NLS-2$
+	}
+
+	/**
+	 * Apply one record to a map of values.
+	 *
+	 * @throws EOFException if the record is shorter than its contents
+	 * @throws UTFDataFormatException if a string is malformed
+	 * @throws IOException if the record is of an unknown kind
+	 */
+	private static void decode(byte[] record, Map<String, Map<String, String>> target) throws IOException {
+		DataInputStream data = new DataInputStream(new ByteArrayInputStream(record));
+		byte op = data.readByte();
+		if (op != SET && op != REMOVE) {
+			throw new UTFDataFormatException();
+		}
+		String path = data.readUTF();
+		if (op == REMOVE) {
+			target.remove(path);
+			return;
+		}
+		String name = data.readUTF();
+		String value = data.readBoolean() ? data.readUTF() : null;
+		Map<String, String> resource = target.get(path);
+		if (value == null) {
+			if (resource != null) {
+				resource.remove(name);
+				if (resource.isEmpty()) {
+					target.remove(path);
+				}
+			}
+			return;
+		}
+		if (resource == null) {
+			resource = new HashMap<String, String>(4);
+			target.put(path, resource);
+		}
+		resource.put(name, value);
+	}
+
+	private void apply(byte op, String path, String name, String value) {
+		Map<String, String> resource = values.get(path);
+		if (op == REMOVE) {
+			if (resource != null) {
+				live -= resource.size();
+				values.remove(path);
+			}
+			return;
+		}
+		if (value == null) {
+			if (resource != null && resource.remove(name) != null) {
+				live--;
+				if (resource.isEmpty()) {
+					values.remove(path);
+				}
+			}
+			return;
+		}
+		if (resource == null) {
+			resource = new HashMap<String, String>(4);
+			values.put(path, resource);
+		}
+		if (resource.put(name, value) == null) {
+			live++;
+		}
+	}
+
+	private static byte[] encode(byte op, String path, String name, String value) throws IOException {
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream(64);
+		DataOutputStream out = new DataOutputStream(bytes);
+		out.writeInt(0);
+		out.writeByte(op);
+		out.writeUTF(path);
+		if (op == SET) {
+			out.writeUTF(name);
+			out.writeBoolean(value != null);
+			if (value != null) {
+				out.writeUTF(value);
+			}
+		}
+		out.flush();
+		byte[] record = bytes.toByteArray();
+		ByteBuffer.wrap(record).putInt(record.length - 4);
+		return record;
+	}
+
+	private void append(byte[] record) throws IOException {
+		if (channel == null) {
+			file.getParentFile().mkdirs();
+			channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE);
+			if (length < HEADER_SIZE) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER_SIZE);
+				header.putInt(MAGIC).putInt(VERSION).flip();
+				channel.write(header, 0);
+				length = HEADER_SIZE;
+				checksum.reset();
+				checksum.update(header.array(), 0, HEADER_SIZE);
+			}
+			if (channel.size() > length) {
+				channel.truncate(length);
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.wrap(record);
+		long position = length;
+		while (buffer.hasRemaining()) {
+			position += channel.write(buffer, position);
+		}
+		length = position;
+		records++;
+		checksum.update(record, 0, record.length);
+	}
+
+	private void compactIfWasteful() throws IOException {
+		if (records > COMPACT_MIN_RECORDS && records > 2 * live) {
+			compact();
+		}
+	}
+
+	/**
+	 * Rewrite the file with only the live values.
+	 *
+	 * @throws IOException if the file cannot be written
+	 */
+	synchronized void compact() throws IOException {
+		load();
+		close();
+		length = write(file, values);
+		records = live;
+		checksum.reset();
+		checksum.update(readAll(), 0, (int) length);
+	}
+
+	/**
+	 * Replace a sidecar file with the given values.
+	 *
+	 * @param file the sidecar file
+	 * @param values the values, by path and then by name
+	 * @return the length of the file
+	 * @throws IOException if the file cannot be written
+	 */
+	static long write(File file, Map<String, Map<String, String>> values) throws IOException {
+		File temp = new File(file.getPath() + ".tmp"); //$NON-NLS-1$
+		try (FileChannel out = FileChannel.open(temp.toPath(), StandardOpenOption.CREATE,
+				StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+			ByteBuffer buffer = ByteBuffer.allocate(64 * 1024);
+			buffer.putInt(MAGIC).putInt(VERSION);
+			for (Map.Entry<String, Map<String, String>> resource : values.entrySet()) {
+				for (Map.Entry<String, String> value : resource.getValue().entrySet()) {
+					byte[] record = encode(SET, resource.getKey(), value.getKey(), value.getValue());
+					if (buffer.remaining() < record.length) {
+						buffer.flip();
+						while (buffer.hasRemaining()) {
+							out.write(buffer);
+						}
+						buffer.clear();
+					}
+					if (record.length > buffer.capacity()) {
+						ByteBuffer large = ByteBuffer.wrap(record);
+						while (large.hasRemaining()) {
+							out.write(large);
+						}
+					} else {
+						buffer.put(record);
+					}
+				}
+			}
+			buffer.flip();
+			while (buffer.hasRemaining()) {
+				out.write(buffer);
+			}
+			out.force(false);
+		}
+		try {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+		} catch (AtomicMoveNotSupportedException e) {
+			Files.move(temp.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING);
+		}
+		return file.length();
+	}
+}
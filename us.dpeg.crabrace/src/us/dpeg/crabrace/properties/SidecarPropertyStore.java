@@ -0,0 +1,345 @@
+/*
+ * Copyright (c) 2016 Donald Purnhagen
+ *
+ * Description:
+ *     Crab property storage in a binary sidecar file of each project.
+ *
+ * Contributors:
+ *     Donald Purnhagen <dpurnhagen@gmail.com>
+ *
+ * Origin:
+ *     https://github.com/dpurnhagen/crabrace
+ */
+package us.dpeg.crabrace.properties;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+import org.eclipse.core.resources.IFile;
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IResourceChangeEvent;
+import org.eclipse.core.resources.IResourceChangeListener;
+import org.eclipse.core.resources.IResourceDelta;
+import org.eclipse.core.resources.IResourceDeltaVisitor;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IPath;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.osgi.util.NLS;
+
+import us.dpeg.crabrace.Activator;
+import us.dpeg.crabrace.Messages;
+
+/**
+ * Keeps crab properties in a compact {@link Sidecar} file at the root of
+ * each project, named {@link #FILE_NAME}. The file travels with the
+ * project when it is copied or shared, and reading it costs one read of
+ * the file per project instead of one property store lookup per resource.
+ * <p>
+ * The store only serves projects that have a sidecar file; see
+ * {@link CrabPropertyStorage}. The file is written behind the back of the
+ * workspace, which is refreshed in the background afterwards. As a
+ * resource change listener, the store moves the values of moved resources,
+ * drops the values of deleted ones, and reads the file again when someone
+ * else changes it, for example a team update.
+ *
+ * @author dpurnhagen
+ */
+public class SidecarPropertyStore implements ICrabPropertyStore, IResourceChangeListener {
+	/** The name of the sidecar file at the root of a project. */
+	public static final String FILE_NAME = ".crabs"; //$NON-NLS-1$
+
+	private static final IPath SIDECAR_PATH = new Path(FILE_NAME);
+	private static final int REFRESH_DELAY = 1000;
+
+	private final Map<IProject, Sidecar> sidecars = new HashMap<IProject, Sidecar>();
+	private final Set<IFile> refreshes = new LinkedHashSet<IFile>();
+	private final Job refreshJob = new Job(Messages.SidecarPropertyStore_jobRefresh) {
+		@Override
+		protected IStatus run(IProgressMonitor monitor) {
+			IFile[] files;
+			synchronized (refreshes) {
+				files = refreshes.toArray(new IFile[refreshes.size()]);
+				refreshes.clear();
+			}
+			for (IFile file : files) {
+				try {
+					file.refreshLocal(IResource.DEPTH_ZERO, monitor);
+				} catch (CoreException e) {
+					// the project was closed or deleted meanwhile
+				}
+			}
+			return Status.OK_STATUS;
+		}
+	};
+
+	public SidecarPropertyStore() {
+		refreshJob.setSystem(true);
+	}
+
+	/**
+	 * @param project a project
+	 * @return the file of the project in the local file system, or null if
+	 *         the project is not local
+	 */
+	public static File getFile(IProject project) {
+		IPath location = project.getLocation();
+		return (location != null) ? location.append(FILE_NAME).toFile() : null;
+	}
+
+	/**
+	 * @param project a project
+	 * @return true if the project keeps its crab properties in a sidecar
+	 */
+	public boolean isEnabled(IProject project) {
+		synchronized (sidecars) {
+			if (sidecars.containsKey(project)) {
+				return sidecars.get(project) != null;
+			}
+		}
+		File file = getFile(project);
+		boolean enabled = file != null && file.isFile();
+		synchronized (sidecars) {
+			if (!sidecars.containsKey(project)) {
+				sidecars.put(project, enabled ? new Sidecar(file) : null);
+			}
+			return sidecars.get(project) != null;
+		}
+	}
+
+	private Sidecar getSidecar(IResource resource) throws CoreException {
+		IProject project = resource.getProject();
+		if (project == null || !isEnabled(project)) {
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+					NLS.bind(Messages.SidecarPropertyStore_errorNoSidecar, resource.getFullPath())));
+		}
+		synchronized (sidecars) {
+			return sidecars.get(project);
+		}
+	}
+
+	private static String key(IResource resource) {
+		return resource.getProjectRelativePath().toPortableString();
+	}
+
+	/* (non-Javadoc)
+	 * @see us.dpeg.crabrace.properties.ICrabPropertyStore#getValue(org.eclipse.core.resources.IResource, us.dpeg.crabrace.properties.CrabProperty)
+	 */
+	public String getValue(IResource resource, CrabProperty<?> property) throws CoreException {
+		Sidecar sidecar = getSidecar(resource);
+		try {
+			return sidecar.get(key(resource), property.getName().getLocalName());
+		} catch (IOException e) {
+			throw error(sidecar, e);
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see us.dpeg.crabrace.properties.ICrabPropertyStore#setValue(org.eclipse.core.resources.IResource, us.dpeg.crabrace.properties.CrabProperty, java.lang.String)
+	 */
+	public void setValue(IResource resource, CrabProperty<?> property, String value) throws CoreException {
+		Sidecar sidecar = getSidecar(resource);
+		try {
+			sidecar.set(key(resource), property.getName().getLocalName(), value);
+		} catch (IOException e) {
+			throw error(sidecar, e);
+		}
+		scheduleRefresh(resource.getProject());
+	}
+
+	/**
+	 * Start keeping the properties of a project in a sidecar with the given
+	 * values, or stop if the values are null. The switch is atomic: the
+	 * sidecar file appears complete, or disappears, in one step.
+	 *
+	 * @param project the project
+	 * @param values the values by project-relative path and then by name,
+	 *            or null to delete the sidecar
+	 * @throws CoreException if the sidecar cannot be written
+	 */
+	void replace(IProject project, Map<String, Map<String, String>> values) throws CoreException {
+		File file = getFile(project);
+		if (file == null) {
+			throw new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+					NLS.bind(Messages.SidecarPropertyStore_errorNoSidecar, project.getFullPath())));
+		}
+		synchronized (sidecars) {
+			Sidecar old = sidecars.remove(project);
+			if (old != null) {
+				old.close();
+			}
+			try {
+				if (values != null) {
+					Sidecar.write(file, values);
+					sidecars.put(project, new Sidecar(file));
+				} else {
+					file.delete();
+					sidecars.put(project, null);
+				}
+			} catch (IOException e) {
+				sidecars.remove(project);
+				throw error(new Sidecar(file), e);
+			}
+		}
+		scheduleRefresh(project);
+	}
+
+	/**
+	 * @param project the project
+	 * @return the values of the sidecar of the project, by project-relative
+	 *         path and then by name
+	 * @throws CoreException if the sidecar cannot be read
+	 */
+	Map<String, Map<String, String>> getAll(IProject project) throws CoreException {
+		Sidecar sidecar = getSidecar(project);
+		try {
+			return sidecar.getAll();
+		} catch (IOException e) {
+			throw error(sidecar, e);
+		}
+	}
+
+	private static CoreException error(Sidecar sidecar, IOException e) {
+		return new CoreException(new Status(IStatus.ERROR, Activator.PLUGIN_ID,
+				NLS.bind(Messages.SidecarPropertyStore_errorIO, sidecar.getFile()), e));
+	}
+
+	private void scheduleRefresh(IProject project) {
+		synchronized (refreshes) {
+			refreshes.add(project.getFile(FILE_NAME));
+		}
+		refreshJob.schedule(REFRESH_DELAY);
+	}
+
+	/**
+	 * Close all sidecar files.
+	 */
+	public void dispose() {
+		refreshJob.cancel();
+		synchronized (sidecars) {
+			for (Sidecar sidecar : sidecars.values()) {
+				if (sidecar != null) {
+					sidecar.close();
+				}
+			}
+			sidecars.clear();
+		}
+	}
+
+	/* (non-Javadoc)
+	 * @see org.eclipse.core.resources.IResourceChangeListener#resourceChanged(org.eclipse.core.resources.IResourceChangeEvent)
+	 */
+	public void resourceChanged(IResourceChangeEvent event) {
+		IResourceDelta delta = event.getDelta();
+		if (delta == null) {
+			return;
+		}
+		synchronized (sidecars) {
+			if (sidecars.isEmpty()) {
+				return;
+			}
+		}
+		try {
+			delta.accept(new IResourceDeltaVisitor() {
+				public boolean visit(IResourceDelta child) throws CoreException {
+					IResource resource = child.getResource();
+					switch (resource.getType()) {
+					case IResource.ROOT:
+						return true;
+					case IResource.PROJECT:
+						if (child.getKind() != IResourceDelta.CHANGED
+								|| (child.getFlags() & IResourceDelta.OPEN) != 0) {
+							forget((IProject) resource);
+							return false;
+						}
+						// a sidecar brought in or taken away by a team update, a
+						// copy or an import switches the store of the project
+						IResourceDelta sidecar = child.findMember(SIDECAR_PATH);
+						if (sidecar != null && sidecar.getKind() != IResourceDelta.CHANGED) {
+							sidecarChanged((IProject) resource);
+							return false;
+						}
+						return isEnabled((IProject) resource);
+					default:
+						if (resource.getParent().getType() == IResource.PROJECT
+								&& FILE_NAME.equals(resource.getName())) {
+							sidecarChanged(resource.getProject());
+						} else if (child.getKind() == IResourceDelta.REMOVED) {
+							removed(child);
+						}
+						return true;
+					}
+				}
+			});
+		} catch (CoreException e) {
+			Activator.getDefault().getLog().log(e.getStatus());
+		}
+	}
+
+	private void forget(IProject project) {
+		synchronized (sidecars) {
+			Sidecar old = sidecars.remove(project);
+			if (old != null) {
+				old.close();
+			}
+		}
+	}
+
+	/**
+	 * Read the sidecar of a project again if someone else changed, added or
+	 * removed it.
+	 */
+	private void sidecarChanged(IProject project) {
+		Sidecar sidecar;
+		synchronized (sidecars) {
+			sidecar = sidecars.get(project);
+		}
+		if (sidecar != null && sidecar.isCurrent()) {
+			// our own write
+			return;
+		}
+		forget(project);
+		Activator.getDefault().getPropertyCache().invalidateAll(project);
+	}
+
+	/**
+	 * Move the values of a moved resource, or drop those of a deleted one.
+	 */
+	private void removed(IResourceDelta delta) throws CoreException {
+		IResource resource = delta.getResource();
+		if (!isEnabled(resource.getProject())) {
+			return;
+		}
+		Sidecar sidecar = getSidecar(resource);
+		String from = key(resource);
+		try {
+			Map<String, String> values = sidecar.get(from);
+			if (values == null) {
+				return;
+			}
+			if ((delta.getFlags() & IResourceDelta.MOVED_TO) != 0) {
+				IResource target = ResourcesPlugin.getWorkspace().getRoot().findMember(delta.getMovedToPath());
+				if (target != null && isEnabled(target.getProject())) {
+					Sidecar to = getSidecar(target);
+					for (Map.Entry<String, String> value : values.entrySet()) {
+						to.set(key(target), value.getKey(), value.getValue());
+					}
+					scheduleRefresh(target.getProject());
+				}
+			}
+			sidecar.remove(from);
+		} catch (IOException e) {
+			throw error(sidecar, e);
+		}
+		scheduleRefresh(resource.getProject());
+	}
+}